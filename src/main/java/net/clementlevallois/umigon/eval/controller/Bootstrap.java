@@ -0,0 +1,78 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.controller;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors.Predictions;
+import net.clementlevallois.umigon.eval.datamodel.Task;
+
+/**
+ * The 95% confidence interval of a weighted F1, by bootstrap: the predictions
+ * of a model on a dataset are resampled with replacement many times, and the
+ * interval is made of the 2.5th and 97.5th percentiles of the F1 of the
+ * resamples.
+ *
+ * The documents that count in the score (see
+ * {@link LabelVectors#scoredDocuments}) are copied once from the label
+ * vectors into two arrays of ordinals (gold and predicted, one cell per
+ * document); each resample fills its own
+ * {@link ConfusionMatrix} from them. The resamples run in parallel on the
+ * common ForkJoinPool, each with its own random generator derived from a fixed
+ * seed: the intervals are the same from one run to the next.
+ *
+ * @author LEVALLOIS
+ */
+public class Bootstrap {
+
+    public static final int RESAMPLES = 10_000;
+
+    private static final long SEED = 20231120L;
+
+    /**
+     * @return the lower and upper bounds of the interval, NaN if there are no
+     * predictions
+     */
+    public static <E extends Enum<E>> float[] weightedF1Interval(Class<E> labelType, Task task, LabelVectors labels, Predictions predictions) {
+        byte[] goldLabels = labels.getGoldLabels(task);
+        byte[] predictedLabels = predictions.getLabels(task);
+        int[] scored = labels.scoredDocuments(task, predictedLabels);
+        int[] gold = new int[scored.length];
+        int[] predicted = new int[scored.length];
+        for (int n = 0; n < scored.length; n++) {
+            gold[n] = goldLabels[scored[n]];
+            predicted[n] = predictedLabels[scored[n]];
+        }
+        return weightedF1Interval(labelType, gold, predicted, RESAMPLES);
+    }
+
+    public static <E extends Enum<E>> float[] weightedF1Interval(Class<E> labelType, int[] goldLabels, int[] predictedLabels, int resamples) {
+        int n = goldLabels.length;
+        if (n == 0) {
+            return new float[]{Float.NaN, Float.NaN};
+        }
+        SplittableRandom seeds = new SplittableRandom(SEED);
+        long[] seedOfResample = new long[resamples];
+        for (int b = 0; b < resamples; b++) {
+            seedOfResample[b] = seeds.nextLong();
+        }
+        float[] f1s = new float[resamples];
+        IntStream.range(0, resamples).parallel().forEach(b -> {
+            SplittableRandom random = new SplittableRandom(seedOfResample[b]);
+            ConfusionMatrix<E> matrix = new ConfusionMatrix(labelType);
+            for (int i = 0; i < n; i++) {
+                int drawn = random.nextInt(n);
+                matrix.add(goldLabels[drawn], predictedLabels[drawn]);
+            }
+            f1s[b] = matrix.weightedF1();
+        });
+        // a resample without any gold label has a NaN F1: it sorts last, and is as rare as the interval is meaningless
+        Arrays.sort(f1s);
+        int lower = (int) Math.floor(0.025 * (resamples - 1));
+        int upper = (int) Math.ceil(0.975 * (resamples - 1));
+        return new float[]{f1s[lower], f1s[upper]};
+    }
+}
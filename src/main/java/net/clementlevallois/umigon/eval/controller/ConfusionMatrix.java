@@ -0,0 +1,214 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.controller;
+
+/**
+ * The counts of gold label x predicted label for one model on one dataset,
+ * for any enum of labels (Sentiment, Factuality, SpeechSource...). The cells
+ * are indexed by the ordinals of the labels and filled in one pass; all the
+ * metrics are derived from them.
+ *
+ * The label NOT_SET of an enum is the absence of a label. A document with no
+ * gold label is not counted. A prediction NOT_SET is neither a true nor a
+ * false positive of any class, as in the scores of the benchmark so far, but
+ * the document still counts in the support of its gold class.
+ *
+ * @author LEVALLOIS
+ */
+public class ConfusionMatrix<E extends Enum<E>> {
+
+    private final E[] labels;
+    private final int notSet;
+    private final int[][] counts;
+
+    public ConfusionMatrix(Class<E> labelType) {
+        this.labels = labelType.getEnumConstants();
+        int notSetOrdinal = -1;
+        for (E label : labels) {
+            if (label.name().equals("NOT_SET")) {
+                notSetOrdinal = label.ordinal();
+            }
+        }
+        this.notSet = notSetOrdinal;
+        this.counts = new int[labels.length][labels.length];
+    }
+
+    public ConfusionMatrix(ConfusionMatrix<E> other) {
+        this.labels = other.labels;
+        this.notSet = other.notSet;
+        this.counts = new int[labels.length][];
+        for (int g = 0; g < labels.length; g++) {
+            this.counts[g] = other.counts[g].clone();
+        }
+    }
+
+    public void add(E gold, E predicted) {
+        counts[gold.ordinal()][predicted.ordinal()]++;
+    }
+
+    /**
+     * Same as {@link #add(Enum, Enum)} with the ordinals of the labels, for
+     * the labels kept in arrays of primitives.
+     */
+    public void add(int goldOrdinal, int predictedOrdinal) {
+        counts[goldOrdinal][predictedOrdinal]++;
+    }
+
+    public int count(E gold, E predicted) {
+        return counts[gold.ordinal()][predicted.ordinal()];
+    }
+
+    /**
+     * The number of documents with this gold label.
+     */
+    public int support(E label) {
+        int support = 0;
+        for (int p = 0; p < labels.length; p++) {
+            support += counts[label.ordinal()][p];
+        }
+        return support;
+    }
+
+    public int truePositives(E label) {
+        return counts[label.ordinal()][label.ordinal()];
+    }
+
+    public int falsePositives(E label) {
+        int c = label.ordinal();
+        int falsePositives = 0;
+        for (int g = 0; g < labels.length; g++) {
+            if (g != c && g != notSet) {
+                falsePositives += counts[g][c];
+            }
+        }
+        return falsePositives;
+    }
+
+    public int falseNegatives(E label) {
+        int c = label.ordinal();
+        int falseNegatives = 0;
+        for (int p = 0; p < labels.length; p++) {
+            if (p != c && p != notSet) {
+                falseNegatives += counts[c][p];
+            }
+        }
+        return falseNegatives;
+    }
+
+    /**
+     * NaN when the model never predicted this label.
+     */
+    public float precision(E label) {
+        float truePositives = truePositives(label);
+        return truePositives / (truePositives + falsePositives(label));
+    }
+
+    /**
+     * NaN when no document has this gold label.
+     */
+    public float recall(E label) {
+        float truePositives = truePositives(label);
+        return truePositives / (truePositives + falseNegatives(label));
+    }
+
+    /**
+     * NaN when the label is neither in the gold labels nor in the predictions.
+     */
+    public float f1(E label) {
+        float truePositives = truePositives(label);
+        return 2 * truePositives / (2 * truePositives + falsePositives(label) + falseNegatives(label));
+    }
+
+    /**
+     * The F1 of each class weighted by its support: the score of the
+     * leaderboard.
+     */
+    public float weightedF1() {
+        float sum = 0;
+        int total = 0;
+        for (E label : labels) {
+            if (label.ordinal() == notSet) {
+                continue;
+            }
+            int support = support(label);
+            if (support > 0) {
+                float f1 = f1(label);
+                sum += (Float.isNaN(f1) ? 0 : f1) * support;
+                total += support;
+            }
+        }
+        return sum / total;
+    }
+
+    /**
+     * The mean of the F1 of the classes present in the gold labels or in the
+     * predictions.
+     */
+    public float macroF1() {
+        float sum = 0;
+        int classes = 0;
+        for (E label : labels) {
+            if (label.ordinal() == notSet) {
+                continue;
+            }
+            float f1 = f1(label);
+            if (!Float.isNaN(f1)) {
+                sum += f1;
+                classes++;
+            }
+        }
+        return sum / classes;
+    }
+
+    /**
+     * The share of documents with a gold label that got this label. A missing
+     * prediction is an error here.
+     */
+    public float accuracy() {
+        int correct = 0;
+        for (int c = 0; c < labels.length; c++) {
+            if (c != notSet) {
+                correct += counts[c][c];
+            }
+        }
+        return correct / (float) numberOfDocuments();
+    }
+
+    /**
+     * The agreement of the model with the gold labels beyond the agreement
+     * expected by chance from the frequencies of the labels of both.
+     */
+    public float cohensKappa() {
+        float n = numberOfDocuments();
+        float expectedAgreement = 0;
+        for (int c = 0; c < labels.length; c++) {
+            if (c == notSet) {
+                continue;
+            }
+            int goldCount = 0;
+            int predictedCount = 0;
+            for (int other = 0; other < labels.length; other++) {
+                goldCount += counts[c][other];
+                if (other != notSet) {
+                    predictedCount += counts[other][c];
+                }
+            }
+            expectedAgreement += (goldCount / n) * (predictedCount / n);
+        }
+        return (accuracy() - expectedAgreement) / (1 - expectedAgreement);
+    }
+
+    public int numberOfDocuments() {
+        int n = 0;
+        for (int g = 0; g < labels.length; g++) {
+            if (g == notSet) {
+                continue;
+            }
+            for (int p = 0; p < labels.length; p++) {
+                n += counts[g][p];
+            }
+        }
+        return n;
+    }
+}
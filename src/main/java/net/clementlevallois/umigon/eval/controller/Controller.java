@@ -6,6 +6,7 @@ package net.clementlevallois.umigon.eval.controller;
 import jakarta.json.bind.Jsonb;
 import jakarta.json.bind.JsonbBuilder;
 import jakarta.json.bind.JsonbConfig;
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -17,20 +18,26 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 import net.clementlevallois.umigon.eval.datasets.Clef2023;
 import net.clementlevallois.umigon.eval.datasets.KaggleHeadlines;
 import net.clementlevallois.umigon.eval.datasets.MPQA;
@@ -39,6 +46,9 @@ import net.clementlevallois.umigon.eval.datasets.XFact;
 import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
 import net.clementlevallois.umigon.eval.datamodel.Annotation;
 import net.clementlevallois.umigon.eval.datamodel.Factuality;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors.Predictions;
+import net.clementlevallois.umigon.eval.datamodel.ModelComparison;
 import net.clementlevallois.umigon.eval.datamodel.OverallScore;
 import net.clementlevallois.umigon.eval.datamodel.Score;
 import net.clementlevallois.umigon.eval.datamodel.Sentiment;
@@ -54,12 +64,20 @@ import net.clementlevallois.umigon.eval.models.TimeLMs;
 import net.clementlevallois.utils.Clock;
 import net.clementlevallois.umigon.eval.datasets.DatasetInterface;
 import net.clementlevallois.umigon.eval.leaderboardgenerator.GenerateLeaderBoard;
+import net.clementlevallois.umigon.eval.mockserver.LatencyDistribution;
+import net.clementlevallois.umigon.eval.mockserver.MockBehavior;
+import net.clementlevallois.umigon.eval.mockserver.MockInferenceServer;
 import net.clementlevallois.umigon.eval.models.GPT35AdvancedPrompt;
 import net.clementlevallois.umigon.eval.models.GPT35BasicPrompt;
 import net.clementlevallois.umigon.eval.models.Mistral7BHermesAdvancedPrompt;
 import net.clementlevallois.umigon.eval.models.Mistral7BHermesBasicPrompt;
 import net.clementlevallois.umigon.eval.models.Thesis_Titan;
 import net.clementlevallois.umigon.eval.models.Umigon;
+import net.clementlevallois.umigon.eval.models.UmigonEngine;
+import net.clementlevallois.umigon.eval.models.UmigonInProcess;
+import net.clementlevallois.umigon.eval.transport.Provider;
+import net.clementlevallois.umigon.eval.transport.ProviderQuota;
+import net.clementlevallois.umigon.eval.transport.TrafficLog;
 
 /**
  *
@@ -67,15 +85,39 @@ import net.clementlevallois.umigon.eval.models.Umigon;
  */
 public class Controller {
 
+    public enum RunMode {
+        // sends all the documents of all the datasets to all the models
+        FULL_EVALUATION,
+        // only sends the documents that have no valid prediction in the results folders
+        INCREMENTAL_EVALUATION,
+        // no API call: computes the scores from the results folders
+        SCORES_ONLY
+    }
+
+    // only computes the scores unless a run of the evaluations is asked for, as these call the paid APIs (run_mode in private/properties.txt, or the first argument of main)
+    public static RunMode RUN_MODE = RunMode.SCORES_ONLY;
+    // sends the calls to an embedded mock of the endpoints, to load test a run offline (with FULL_EVALUATION).
+    // The mock replays the labels of the results folders, so the results written at the end stay the same.
+    private static final boolean USE_MOCK_SERVER = false;
     private final boolean skipAllAPICalls = false;
     private final boolean onlyUmigonAPICalls = false;
     private final boolean printFalseClassificationsForUmigon = true;
+    private final boolean useResponseCache = true;
+    // names of the models whose cached responses must be discarded, for instance after a change of endpoint
+    private final Set<String> modelsWithStaleCache = Set.of();
+    private final ResponseCache responseCache = new ResponseCache(Path.of("cache"));
+    private final Map<String, LabelVectors> labelVectorsOfDatasets = new ConcurrentHashMap();
+    private final Map<String, Optional<Predictions>> predictionsOfEachEval = new ConcurrentHashMap();
     private static final int LIMIT_RECORDS_FOR_TESTS = Integer.MAX_VALUE;
     private final DecimalFormat decimalFormat = new DecimalFormat("0.00");
     private static final StringBuilder log = new StringBuilder();
     public static String HUGGINGFACE_API_KEY;
     public static String UMIGON_API_KEY;
     public static String OPENAI_API_KEY;
+    public static int HUGGINGFACE_BATCH_SIZE = 32;
+    public static int HUGGINGFACE_BATCH_MAX_WAIT_MILLIS = 50;
+    public static double HUGGINGFACE_HEDGING_MAX_EXTRA_LOAD = 0.05;
+    public static boolean OPENAI_BATCH_MODE = false;
 
     public static Set<DatasetInterface> datasets;
     public static Set<ModelInterface> models;
@@ -84,11 +126,33 @@ public class Controller {
 
         Controller controller = new Controller();
         controller.loadProperties();
+        if (args.length > 0) {
+            RUN_MODE = RunMode.valueOf(args[0].toUpperCase());
+        }
+        System.out.println("run mode: " + RUN_MODE);
         controller.initDataSetsAndModels();
-//        controller.runEvaluations(datasets, models);
+        MockInferenceServer mockServer = null;
+        if (USE_MOCK_SERVER) {
+            MockBehavior behavior = MockBehavior.healthy()
+                    .withLatency(LatencyDistribution.logNormal(200, 0.5))
+                    .withErrorRate(0.01)
+                    .withLoadingPhase(Duration.ofSeconds(5))
+                    .withMaxConcurrentCalls(128);
+            mockServer = MockInferenceServer.standInForAllEndpoints(models, behavior);
+            mockServer.replayRecordedLabels(datasets);
+        }
+        if (RUN_MODE != RunMode.SCORES_ONLY) {
+            controller.runEvaluations(datasets, models);
+        }
+        TrafficLog.off();
+        if (mockServer != null) {
+            System.out.println("calls received by the mock server: " + mockServer.getNumberOfCalls());
+            mockServer.close();
+        }
         ConcurrentSkipListSet <Score> scores = controller.computeF1Scores(datasets, models);
         List<OverallScore> overallScores = controller.computeOverallScores(scores);
-        GenerateLeaderBoard generator = new GenerateLeaderBoard(datasets, models, scores, overallScores);
+        List<ModelComparison> comparisons = controller.computeSignificanceTests(datasets, models);
+        GenerateLeaderBoard generator = new GenerateLeaderBoard(datasets, models, scores, overallScores, comparisons);
         generator.generateFullReadMe();
     }
 
@@ -104,7 +168,9 @@ public class Controller {
         datasets.add(new XFact());
 
         models = new HashSet();
-        models.add(new Umigon());
+        // Umigon runs in the JVM when its classifier is on the classpath, and is called through its API otherwise
+        Optional<UmigonEngine> umigonEngine = UmigonEngine.find();
+        models.add(umigonEngine.isPresent() ? new UmigonInProcess(umigonEngine.get()) : new Umigon());
         models.add(new Thesis_Titan());
         models.add(new TimeLMs());
         models.add(new Mistral7BHermesBasicPrompt());
@@ -120,18 +186,35 @@ public class Controller {
 
         Clock generalClock = new Clock("general clock for evaluations on " + LocalDateTime.now());
         appendString(log, generalClock.getAction());
-        datasetReaders.parallelStream().map(datasetReader -> {
-            datasetReader.read();
-            return datasetReader;
-        }).forEach(datasetReader -> {
-            StringBuilder logOneEval = new StringBuilder();
-            models.parallelStream().forEach(model -> {
-                Clock clock = new Clock("evaluating " + datasetReader.getName() + " with " + model.getName());
-                appendString(logOneEval, clock.getAction());
-                Map<String, AnnotatedDocument> predictedLabels = evalOneDataSetWithOneModel(datasetReader, model);
-                appendString(log, clock.closeAndPrintClockToString("\n"));
-            });
-        });
+        modelsWithStaleCache.forEach(responseCache::invalidate);
+        try (EvaluationExecutor executor = new EvaluationExecutor()) {
+            List<CompletableFuture<Void>> evaluations = new ArrayList();
+            for (DatasetInterface datasetReader : datasetReaders) {
+                datasetReader.read();
+                StringBuilder logOneEval = new StringBuilder();
+                for (ModelInterface model : models) {
+                    IncrementalEvaluation incremental = new IncrementalEvaluation(datasetReader, model, getPathResultOfOneEval(datasetReader.getName(), model.getName()));
+                    Map<String, AnnotatedDocument> reusablePredictions;
+                    if (RUN_MODE == RunMode.INCREMENTAL_EVALUATION) {
+                        if (incremental.isUpToDate(LIMIT_RECORDS_FOR_TESTS)) {
+                            System.out.println("results of " + datasetReader.getName() + " with " + model.getName() + " are up to date");
+                            continue;
+                        }
+                        reusablePredictions = incremental.getReusablePredictions();
+                    } else {
+                        reusablePredictions = Map.of();
+                    }
+                    evaluations.add(executor.run(() -> {
+                        Clock clock = new Clock("evaluating " + datasetReader.getName() + " with " + model.getName());
+                        appendString(logOneEval, clock.getAction());
+                        evalOneDataSetWithOneModel(datasetReader, model, reusablePredictions, executor);
+                        incremental.writeManifest();
+                        appendString(log, clock.closeAndPrintClockToString("\n"));
+                    }));
+                }
+            }
+            CompletableFuture.allOf(evaluations.toArray(CompletableFuture[]::new)).join();
+        }
         appendString(log, generalClock.closeAndPrintClockToString("\nend of evaluations"));
         Files.writeString(Path.of("logs", "run of " + LocalDateTime.now().toString().replaceAll(":", "_") + ".txt"), log.toString());
     }
@@ -146,12 +229,6 @@ public class Controller {
             return dataset;
         }).forEach(dataset -> {
             models.parallelStream().forEach(model -> {
-                JsonbConfig jsonbConfig = new JsonbConfig();
-                jsonbConfig.withFormatting(Boolean.TRUE);
-                Jsonb jsonb = JsonbBuilder.create(jsonbConfig);
-                String fileNameEvaluationsOneDatasetOneModel = dataset.getName() + "_evaluated_with_" + model.getName() + ".txt";
-                Map<String, AnnotatedDocument> predictedLabels = null;
-
                 Clock clock = new Clock("computing F1 scores for " + dataset.getName() + " with " + model.getName());
                 Boolean printFalseClassifications;
                 if (model.getName().equals("umigon") && printFalseClassificationsForUmigon) {
@@ -159,139 +236,54 @@ public class Controller {
                 } else {
                     printFalseClassifications = Boolean.FALSE;
                 }
-                switch (model.getTask()) {
-                    case FACTUALITY -> {
-                        if (dataset.getTask().equals(FACTUALITY_AND_SENTIMENT) || dataset.getTask().equals(FACTUALITY)) {
-                            Path predictedLabelsPath = Path.of(dataset.getName(), "results", fileNameEvaluationsOneDatasetOneModel);
-                            if (Files.exists(predictedLabelsPath)) {
-                                try {
-                                    predictedLabels = jsonb.fromJson(Files.newBufferedReader(predictedLabelsPath, StandardCharsets.UTF_8), new HashMap<String, AnnotatedDocument>() {
-                                    }.getClass().getGenericSuperclass());
-                                } catch (IOException ex) {
-                                    Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
-                                }
-                            } else {
-                                System.out.println("file with predicted label not found: " + predictedLabelsPath.toString());
-                                System.out.println("EXITING");
-                                System.exit(-1);
-                            }
-                            if (predictedLabels == null) {
-                                System.out.println("Error loading predicted labels for " + dataset.getName() + " , " + model.getName());
-                                System.out.println("EXITING");
-                                System.exit(-1);
-                            }
-                            Score score = new Score();
-                            score.setDatasetName(dataset.getName());
-                            score.setModelName(model.getName());
-                            score.setDateTime(LocalDateTime.now());
-                            Float weightedF1 = F1.computeBasedOnFactuality(dataset.getGoldenLabels(), predictedLabels, dataset.getName(), model.getName(), printFalseClassifications);
-                            writeF1ScoreForOneDatasetAndOneTask(dataset.getName(), model.getName(), FACTUALITY, weightedF1);
-                            score.setScore(weightedF1);
-                            score.setTask(FACTUALITY);
-                            score.setDatasetSize(dataset.getNumberOfEntries());
-                            scores.add(score);
-                        }
-                    }
-                    case SENTIMENT -> {
-                        if (dataset.getTask().equals(FACTUALITY_AND_SENTIMENT) || dataset.getTask().equals(SENTIMENT)) {
-                            Path predictedLabelsPath = Path.of(dataset.getName(), "results", fileNameEvaluationsOneDatasetOneModel);
-                            if (Files.exists(predictedLabelsPath)) {
-                                try {
-                                    predictedLabels = jsonb.fromJson(Files.newBufferedReader(predictedLabelsPath, StandardCharsets.UTF_8), new HashMap<String, AnnotatedDocument>() {
-                                    }.getClass().getGenericSuperclass());
-                                } catch (IOException ex) {
-                                    Logger.getLogger(Alexa.class.getName()).log(Level.SEVERE, null, ex);
-                                }
-                            } else {
-                                System.out.println("file with predicted label not found: " + predictedLabelsPath.toString());
-                                System.out.println("EXITING");
-                                System.exit(-1);
-                            }
-                            if (predictedLabels == null) {
-                                System.out.println("Error loading predicted labels for " + dataset.getName() + " , " + model.getName());
-                                System.out.println("EXITING");
-                                System.exit(-1);
-                            }
-
-                            Float weightedF1 = F1.computeBasedOnSentiment(dataset.getGoldenLabels(), predictedLabels, dataset.getName(), model.getName(), printFalseClassifications);
-                            Score score = new Score();
-                            score.setDatasetName(dataset.getName());
-                            score.setModelName(model.getName());
-                            score.setDateTime(LocalDateTime.now());
-                            score.setDatasetSize(dataset.getNumberOfEntries());
-                            writeF1ScoreForOneDatasetAndOneTask(dataset.getName(), model.getName(), SENTIMENT, weightedF1);
-                            score.setScore(weightedF1);
-                            score.setTask(SENTIMENT);
-                            scores.add(score);
-                        }
+                if (model.getTask() == null || model.getTask() == Task.NOT_SET) {
+                    System.out.println("error: model task was not set");
+                    return;
+                }
+                Set<Task> tasks = EnumSet.noneOf(Task.class);
+                for (Task task : new Task[]{SENTIMENT, FACTUALITY}) {
+                    if (isScoredOn(model, dataset, task)) {
+                        tasks.add(task);
                     }
-                    case FACTUALITY_AND_SENTIMENT -> {
-                        if (dataset.getTask().equals(FACTUALITY_AND_SENTIMENT) || dataset.getTask().equals(SENTIMENT)) {
-                            Path predictedLabelsPath = Path.of(dataset.getName(), "results", fileNameEvaluationsOneDatasetOneModel);
-                            if (Files.exists(predictedLabelsPath)) {
-                                try {
-                                    predictedLabels = jsonb.fromJson(Files.newBufferedReader(predictedLabelsPath, StandardCharsets.UTF_8), new HashMap<String, AnnotatedDocument>() {
-                                    }.getClass().getGenericSuperclass());
-                                } catch (IOException ex) {
-                                    Logger.getLogger(Alexa.class.getName()).log(Level.SEVERE, null, ex);
-                                }
-                            } else {
-                                System.out.println("file with predicted label not found: " + predictedLabelsPath.toString());
-                                System.out.println("EXITING");
-                                System.exit(-1);
-                            }
-                            if (predictedLabels == null) {
-                                System.out.println("Error loading predicted labels for " + dataset.getName() + " , " + model.getName());
-                                System.out.println("EXITING");
-                                System.exit(-1);
-                            }
+                }
+                if (tasks.isEmpty()) {
+                    return;
+                }
+                Path predictedLabelsPath = getPathResultOfOneEval(dataset.getName(), model.getName());
+                if (!Files.exists(predictedLabelsPath)) {
+                    System.out.println("file with predicted label not found: " + predictedLabelsPath.toString());
+                    System.out.println("EXITING");
+                    System.exit(-1);
+                }
+                Predictions predictions = predictionsOf(dataset, model);
+                if (predictions == null) {
+                    System.out.println("Error loading predicted labels for " + dataset.getName() + " , " + model.getName());
+                    System.out.println("EXITING");
+                    System.exit(-1);
+                }
 
-                            Score score = new Score();
-                            score.setDatasetName(dataset.getName());
-                            score.setModelName(model.getName());
-                            score.setDateTime(LocalDateTime.now());
-                            score.setDatasetSize(dataset.getNumberOfEntries());
-                            Float weightedF1Sentiment = F1.computeBasedOnSentiment(dataset.getGoldenLabels(), predictedLabels, dataset.getName(), model.getName(), printFalseClassifications);
-                            writeF1ScoreForOneDatasetAndOneTask(dataset.getName(), model.getName(), SENTIMENT, weightedF1Sentiment);
-                            score.setScore(weightedF1Sentiment);
-                            score.setTask(SENTIMENT);
-                            scores.add(score);
-                        }
-                        if (dataset.getTask().equals(FACTUALITY_AND_SENTIMENT) || dataset.getTask().equals(FACTUALITY)) {
-                            Path predictedLabelsPath = Path.of(dataset.getName(), "results", fileNameEvaluationsOneDatasetOneModel);
-                            if (Files.exists(predictedLabelsPath)) {
-                                try {
-                                    predictedLabels = jsonb.fromJson(Files.newBufferedReader(predictedLabelsPath, StandardCharsets.UTF_8), new HashMap<String, AnnotatedDocument>() {
-                                    }.getClass().getGenericSuperclass());
-                                } catch (IOException ex) {
-                                    Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
-                                }
-                            } else {
-                                System.out.println("file with predicted label not found: " + predictedLabelsPath.toString());
-                                System.out.println("EXITING");
-                                System.exit(-1);
-                            }
-                            if (predictedLabels == null) {
-                                System.out.println("Error loading predicted labels for " + dataset.getName() + " , " + model.getName());
-                                System.out.println("EXITING");
-                                System.exit(-1);
-                            }
-                            Score score = new Score();
-                            score.setDatasetName(dataset.getName());
-                            score.setModelName(model.getName());
-                            score.setDateTime(LocalDateTime.now());
-                            score.setDatasetSize(dataset.getNumberOfEntries());
-                            Float weightedF1Factuality = F1.computeBasedOnFactuality(dataset.getGoldenLabels(), predictedLabels, dataset.getName(), model.getName(), printFalseClassifications);
-                            writeF1ScoreForOneDatasetAndOneTask(dataset.getName(), model.getName(), FACTUALITY, weightedF1Factuality);
-                            score.setScore(weightedF1Factuality);
-                            score.setTask(FACTUALITY);
-                            scores.add(score);
-                        }
-                    }
-                    default -> {
-                        System.out.println("error: model task was not set");
-                    }
+                // all the tasks are scored in the same walk through the predictions, and their scores are emitted together
+                LabelVectors labels = labelVectorsOf(dataset);
+                Map<Task, Float> weightedF1s = F1.computeInOnePass(labels, predictions, tasks, dataset.getName(), model.getName(), printFalseClassifications);
+                List<Score> scoresOfThisEval = new ArrayList();
+                for (Map.Entry<Task, Float> entry : weightedF1s.entrySet()) {
+                    Task task = entry.getKey();
+                    Float weightedF1 = entry.getValue();
+                    writeF1ScoreForOneDatasetAndOneTask(dataset.getName(), model.getName(), task, weightedF1);
+                    Score score = new Score();
+                    score.setDatasetName(dataset.getName());
+                    score.setModelName(model.getName());
+                    score.setDateTime(LocalDateTime.now());
+                    score.setDatasetSize(dataset.getNumberOfEntries());
+                    score.setScore(weightedF1);
+                    float[] interval = task == SENTIMENT
+                            ? Bootstrap.weightedF1Interval(Sentiment.class, SENTIMENT, labels, predictions)
+                            : Bootstrap.weightedF1Interval(Factuality.class, FACTUALITY, labels, predictions);
+                    score.setConfidenceInterval(interval[0], interval[1]);
+                    score.setTask(task);
+                    scoresOfThisEval.add(score);
                 }
+                scores.addAll(scoresOfThisEval);
                 appendString(log, clock.closeAndPrintClockToString("\n"));
             });
         });
@@ -300,10 +292,109 @@ public class Controller {
 
     }
 
+    /**
+     * Compares all the pairs of models evaluated on the same dataset and task,
+     * in parallel.
+     */
+    private List<ModelComparison> computeSignificanceTests(Set<DatasetInterface> datasets, Set<ModelInterface> models) {
+        Clock clock = new Clock("paired significance tests between models");
+        record Pair(DatasetInterface dataset, Task task, ModelInterface modelA, ModelInterface modelB) {
+
+        }
+        List<Pair> pairs = new ArrayList();
+        for (DatasetInterface dataset : datasets) {
+            for (Task task : new Task[]{FACTUALITY, SENTIMENT}) {
+                List<ModelInterface> modelsOnTask = models.stream()
+                        .filter(model -> isScoredOn(model, dataset, task))
+                        .sorted(Comparator.comparing(ModelInterface::getName))
+                        .toList();
+                for (int a = 0; a < modelsOnTask.size(); a++) {
+                    for (int b = a + 1; b < modelsOnTask.size(); b++) {
+                        pairs.add(new Pair(dataset, task, modelsOnTask.get(a), modelsOnTask.get(b)));
+                    }
+                }
+            }
+        }
+        List<ModelComparison> comparisons = pairs.parallelStream()
+                .map(pair -> {
+                    LabelVectors labels = labelVectorsOf(pair.dataset());
+                    Predictions predictionsOfA = Objects.requireNonNullElseGet(predictionsOf(pair.dataset(), pair.modelA()), () -> labels.align(Map.of()));
+                    Predictions predictionsOfB = Objects.requireNonNullElseGet(predictionsOf(pair.dataset(), pair.modelB()), () -> labels.align(Map.of()));
+                    if (pair.task() == FACTUALITY) {
+                        return SignificanceTests.compare(pair.dataset().getName(), FACTUALITY, labels, pair.modelA().getName(), predictionsOfA, pair.modelB().getName(), predictionsOfB, Factuality.class);
+                    } else {
+                        return SignificanceTests.compare(pair.dataset().getName(), SENTIMENT, labels, pair.modelA().getName(), predictionsOfA, pair.modelB().getName(), predictionsOfB, Sentiment.class);
+                    }
+                })
+                .toList();
+        appendString(log, clock.closeAndPrintClockToString("\n"));
+        return comparisons;
+    }
+
+    /**
+     * The gold labels of a dataset as label vectors, built once per dataset
+     * and shared by all the scoring of the models on it.
+     */
+    private LabelVectors labelVectorsOf(DatasetInterface dataset) {
+        return labelVectorsOfDatasets.computeIfAbsent(dataset.getName(), name -> new LabelVectors(dataset.getGoldenLabels()));
+    }
+
+    /**
+     * The predictions of a model on a dataset, aligned on the label vectors of
+     * the dataset. The results file of the eval is read once, and the
+     * predictions are kept for the significance tests. A file that could not
+     * be read is remembered as such, and not read again.
+     *
+     * @return null if the results file could not be read
+     */
+    private Predictions predictionsOf(DatasetInterface dataset, ModelInterface model) {
+        String key = dataset.getName() + "\u0000" + model.getName();
+        Optional<Predictions> predictions = predictionsOfEachEval.get(key);
+        if (predictions == null) {
+            // loaded outside of the map, so that reading a file does not hold a lock of the map
+            Map<String, AnnotatedDocument> predictedLabels = loadPredictions(dataset, model);
+            Optional<Predictions> loaded = predictedLabels == null ? Optional.empty() : Optional.of(labelVectorsOf(dataset).align(predictedLabels));
+            predictions = Objects.requireNonNullElse(predictionsOfEachEval.putIfAbsent(key, loaded), loaded);
+        }
+        return predictions.orElse(null);
+    }
+
+    private static boolean isScoredOn(ModelInterface model, DatasetInterface dataset, Task task) {
+        boolean modelDoesTask = model.getTask() == task || model.getTask() == FACTUALITY_AND_SENTIMENT;
+        boolean datasetHasTask = dataset.getTask() == task || dataset.getTask() == FACTUALITY_AND_SENTIMENT;
+        return modelDoesTask && datasetHasTask;
+    }
+
+    /**
+     * @return no prediction if the eval has no results file, null if the file
+     * could not be read
+     */
+    private static Map<String, AnnotatedDocument> loadPredictions(DatasetInterface dataset, ModelInterface model) {
+        Path predictedLabelsPath = getPathResultOfOneEval(dataset.getName(), model.getName());
+        if (!Files.exists(predictedLabelsPath)) {
+            return Map.of();
+        }
+        try (Jsonb jsonb = JsonbBuilder.create(); BufferedReader reader = Files.newBufferedReader(predictedLabelsPath, StandardCharsets.UTF_8)) {
+            return jsonb.fromJson(reader, new HashMap<String, AnnotatedDocument>() {
+            }.getClass().getGenericSuperclass());
+        } catch (Exception ex) {
+            Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, "could not load the predictions of " + predictedLabelsPath, ex);
+            return null;
+        }
+    }
+
     private static Path getPathResultOfOneEval(String datasetName, String model) {
         return Path.of(datasetName, "results", datasetName + "_evaluated_with_" + model + ".txt");
     }
 
+    private static Path getPathBatchesOfOneEval(String datasetName, String model) {
+        return Path.of(datasetName, "results", datasetName + "_evaluated_with_" + model + ".batches");
+    }
+
+    private static Path getPathJournalOfOneEval(String datasetName, String model) {
+        return Path.of(datasetName, "results", datasetName + "_evaluated_with_" + model + ".journal");
+    }
+
     private static void writeF1ScoreForOneDatasetAndOneTask(String datasetName, String modelName, Task task, Float F1) {
         Path path;
         String info;
@@ -330,70 +421,121 @@ public class Controller {
         }
     }
 
-    private Map<String, AnnotatedDocument> evalOneDataSetWithOneModel(DatasetInterface dataset, ModelInterface model) {
+    private void evalOneDataSetWithOneModel(DatasetInterface dataset, ModelInterface model, Map<String, AnnotatedDocument> reusablePredictions, EvaluationExecutor executor) {
         JsonbConfig jsonbConfig = new JsonbConfig();
         jsonbConfig.withFormatting(Boolean.TRUE);
         Jsonb jsonb = JsonbBuilder.create(jsonbConfig);
         Map<String, AnnotatedDocument> predictedLabels = new ConcurrentHashMap();
-        try {
+        try (EvaluationJournal journal = new EvaluationJournal(getPathJournalOfOneEval(dataset.getName(), model.getName()))) {
+            predictedLabels.putAll(reusablePredictions);
+            predictedLabels.putAll(journal.load());
+            if (!predictedLabels.isEmpty()) {
+                System.out.println("resuming the evaluation of " + dataset.getName() + " with " + model.getName() + ": " + predictedLabels.size() + " documents already evaluated");
+            }
             Map<String, AnnotatedDocument> goldMap = dataset.getGoldenLabels();
-            float[] i = new float[1];
-            i[0] = 0;
-            Stream<AnnotatedDocument> stream = null;
+            AtomicInteger i = new AtomicInteger(predictedLabels.size());
+            AtomicInteger failures = new AtomicInteger();
             float total = goldMap.size();
-            if (model.areConcurrentAPICallsPossible()) {
-                stream = goldMap.values().parallelStream();
-            } else {
-                stream = goldMap.values().stream();
+            List<AnnotatedDocument> docsToAnnotate = goldMap.values().stream()
+                    .limit(LIMIT_RECORDS_FOR_TESTS)
+                    .filter(docGold -> !predictedLabels.containsKey(docGold.getId()))
+                    .map(docGold -> new AnnotatedDocument(docGold.getId(), docGold.getText()))
+                    .toList();
+            // the documents go to the model in chunks of its batch size: one document per call for most models
+            int chunkSize = Math.max(1, model.getBatchSize());
+            List<CompletableFuture<Void>> calls = new ArrayList();
+            for (int start = 0; start < docsToAnnotate.size(); start += chunkSize) {
+                List<AnnotatedDocument> chunk = docsToAnnotate.subList(start, Math.min(start + chunkSize, docsToAnnotate.size()));
+                CompletableFuture<Void> call = executor.callModel(model, () -> annotate(chunk, model, dataset))
+                        .handle((annotations, ex) -> {
+                            Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                            for (int j = 0; j < chunk.size(); j++) {
+                                AnnotatedDocument doc = chunk.get(j);
+                                if (ex != null) {
+                                    // a failed prediction: it is flagged as such, and it is not journaled so that the next run sends it again
+                                    System.out.println("");
+                                    System.out.println("failed prediction for doc " + doc.getId() + " in " + dataset.getName() + " with " + model.getName() + ": " + cause.getMessage());
+                                    failures.incrementAndGet();
+                                    doc.addAnnotation(Annotation.failedCall());
+                                    predictedLabels.put(doc.getId(), doc);
+                                } else {
+                                    doc.addAnnotation(annotations.get(j));
+                                    predictedLabels.put(doc.getId(), doc);
+                                    if (Boolean.TRUE.equals(annotations.get(j).getCallFailed())) {
+                                        // a document left out of a batch that went through
+                                        failures.incrementAndGet();
+                                    } else {
+                                        journal.append(doc);
+                                    }
+                                }
+                                int done = i.incrementAndGet();
+                                if (done % 100 == 0) {
+                                    float progress = (done / total) * 100;
+                                    System.out.println("");
+                                    System.out.println("progress (" + dataset.getName() + ", " + model.getName() + "): " + decimalFormat.format(progress) + "%");
+                                }
+                            }
+                            return null;
+                        });
+                calls.add(call);
+            }
+            CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).join();
+            if (failures.get() > 0) {
+                System.out.println(failures.get() + " failed predictions for " + dataset.getName() + " with " + model.getName());
             }
-            stream.limit(LIMIT_RECORDS_FOR_TESTS).forEach(docGold -> {
-                AnnotatedDocument doc = new AnnotatedDocument(docGold.getId(), docGold.getText());
-                String response = model.sendApiCall(doc);
-                Annotation annotation;
-                switch (model.getTask()) {
-                    case FACTUALITY -> {
-                        Factuality label = model.extractFactualityLabelFromAPiResponse(response);
-                        if (label.equals((Factuality.NOT_SET))) {
-                            printErrorInResponse(doc.getText(), response, model.getTask(), model.getName(), dataset.getName());
-                        }
-                        annotation = Annotation.empty().withFactuality(label);
-                    }
-                    case SENTIMENT -> {
-                        Sentiment label = model.extractSentimentLabelFromAPiResponse(response);
-                        annotation = Annotation.empty().withSentiment(label);
-                        if (label.equals((Sentiment.NOT_SET))) {
-                            printErrorInResponse(doc.getText(), response, model.getTask(), model.getName(), dataset.getName());
-                        }
-                    }
-                    case FACTUALITY_AND_SENTIMENT -> {
-                        Sentiment labelSentiment = model.extractSentimentLabelFromAPiResponse(response);
-                        Factuality labelFactuality = model.extractFactualityLabelFromAPiResponse(response);
-                        if (labelSentiment.equals(Sentiment.NOT_SET) | labelFactuality.equals(Factuality.NOT_SET)) {
-                            printErrorInResponse(doc.getText(), response, model.getTask(), model.getName(), dataset.getName());
-                        }
-                        annotation = Annotation.empty().withSentiment(labelSentiment).withFactuality(labelFactuality);
-                    }
-                    default -> {
-                        System.out.println("a model had no task set");
-                        annotation = null;
-                    }
-                }
-                doc.addAnnotation(annotation);
-                predictedLabels.put(doc.getId(), doc);
-                i[0] = i[0] + 1;
-                if (i[0] % 100 == 0) {
-                    float progress = (i[0] / total) * 100;
-                    System.out.println("");
-                    System.out.println("progress (" + dataset.getName() + ", " + model.getName() + "): " + decimalFormat.format(progress) + "%");
-                }
-            });
             String json = jsonb.toJson(predictedLabels);
             Files.writeString(getPathResultOfOneEval(dataset.getName(), model.getName()), json, StandardCharsets.UTF_8);
+            journal.delete();
 
         } catch (IOException ex) {
             Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
         }
-        return predictedLabels;
+    }
+
+    private List<Annotation> annotate(List<AnnotatedDocument> docs, ModelInterface model, DatasetInterface dataset) {
+        if (model.getBatchSize() > 1) {
+            List<Annotation> annotations = model.annotateBatch(docs, getPathBatchesOfOneEval(dataset.getName(), model.getName()));
+            if (annotations.size() != docs.size()) {
+                throw new IllegalStateException(model.getName() + " returned " + annotations.size() + " annotations for a batch of " + docs.size() + " documents");
+            }
+            return annotations;
+        }
+        List<Annotation> annotations = new ArrayList();
+        for (AnnotatedDocument doc : docs) {
+            annotations.add(annotate(doc, model, dataset));
+        }
+        return annotations;
+    }
+
+    private Annotation annotate(AnnotatedDocument doc, ModelInterface model, DatasetInterface dataset) {
+        if (model.isInProcess()) {
+            // no response to cache or to read: the model gives the labels
+            return model.annotate(doc);
+        }
+        return annotate(doc, sendApiCall(model, doc), model, dataset);
+    }
+
+    private String sendApiCall(ModelInterface model, AnnotatedDocument doc) {
+        // the responses of the mock server must not end up in the cache
+        if (useResponseCache && !USE_MOCK_SERVER) {
+            return responseCache.sendApiCall(model, doc);
+        } else {
+            return model.sendApiCall(doc);
+        }
+    }
+
+    private Annotation annotate(AnnotatedDocument doc, String response, ModelInterface model, DatasetInterface dataset) {
+        Annotation annotation = model.extractAnnotation(response);
+        if (annotation == null) {
+            // handled as a failed call, like a call that was given up
+            throw new IllegalStateException(model.getName() + " has no task set");
+        }
+        boolean missingFactuality = annotation.getFactuality().equals(Factuality.NOT_SET) && (model.getTask().equals(FACTUALITY) || model.getTask().equals(FACTUALITY_AND_SENTIMENT));
+        boolean missingSentiment = annotation.getSentiment().equals(Sentiment.NOT_SET) && (model.getTask().equals(SENTIMENT) || model.getTask().equals(FACTUALITY_AND_SENTIMENT));
+        if (missingFactuality || missingSentiment) {
+            printErrorInResponse(doc.getText(), response, model.getTask(), model.getName(), dataset.getName());
+        }
+        return annotation;
     }
 
     private void printErrorInResponse(String line, String response, Task task, String modelName, String datasetName) {
@@ -513,6 +655,13 @@ public class Controller {
             HUGGINGFACE_API_KEY = privateProperties.getProperty("huggingface_api_key", null);
             UMIGON_API_KEY = privateProperties.getProperty("umigon_api_key", null);
             OPENAI_API_KEY = privateProperties.getProperty("openai_api_key", null);
+            HUGGINGFACE_BATCH_SIZE = Integer.parseInt(privateProperties.getProperty("huggingface_batch_size", String.valueOf(HUGGINGFACE_BATCH_SIZE)));
+            HUGGINGFACE_BATCH_MAX_WAIT_MILLIS = Integer.parseInt(privateProperties.getProperty("huggingface_batch_max_wait_millis", String.valueOf(HUGGINGFACE_BATCH_MAX_WAIT_MILLIS)));
+            HUGGINGFACE_HEDGING_MAX_EXTRA_LOAD = Double.parseDouble(privateProperties.getProperty("huggingface_hedging_max_extra_load", String.valueOf(HUGGINGFACE_HEDGING_MAX_EXTRA_LOAD)));
+            OPENAI_BATCH_MODE = Boolean.parseBoolean(privateProperties.getProperty("openai_batch_mode", String.valueOf(OPENAI_BATCH_MODE)));
+            RUN_MODE = RunMode.valueOf(privateProperties.getProperty("run_mode", RUN_MODE.name()).trim().toUpperCase());
+            loadQuotas(privateProperties);
+            loadTrafficLog(privateProperties);
         } catch (IOException ex) {
             System.out.println("error in reading properties");
             System.exit(-1);
@@ -520,6 +669,29 @@ public class Controller {
 
     }
 
+    private void loadQuotas(Properties privateProperties) {
+        // the defaults are the Tier 1 limits of OpenAI, the limits of our HF endpoints and the throttling of Umigon without an API key
+        double openaiRequestsPerMinute = Double.parseDouble(privateProperties.getProperty("openai_requests_per_minute", "500"));
+        int openaiTokensPerMinute = Integer.parseInt(privateProperties.getProperty("openai_tokens_per_minute", "40000"));
+        ProviderQuota.configure(Provider.OPENAI, openaiRequestsPerMinute / 60, openaiTokensPerMinute);
+        double huggingfaceRequestsPerSecond = Double.parseDouble(privateProperties.getProperty("huggingface_requests_per_second", "50"));
+        ProviderQuota.configure(Provider.HUGGINGFACE, huggingfaceRequestsPerSecond, 0);
+        String umigonDefault = UMIGON_API_KEY == null ? "40" : "1000";
+        double umigonRequestsPerSecond = Double.parseDouble(privateProperties.getProperty("umigon_requests_per_second", umigonDefault));
+        ProviderQuota.configure(Provider.UMIGON, umigonRequestsPerSecond, 0);
+    }
+
+    private void loadTrafficLog(Properties privateProperties) {
+        String recordTo = privateProperties.getProperty("traffic_record_file", null);
+        String replayFrom = privateProperties.getProperty("traffic_replay_file", null);
+        if (replayFrom != null) {
+            boolean originalTiming = Boolean.parseBoolean(privateProperties.getProperty("traffic_replay_original_timing", "false"));
+            TrafficLog.replay(Path.of(replayFrom), originalTiming);
+        } else if (recordTo != null) {
+            TrafficLog.record(Path.of(recordTo));
+        }
+    }
+
     private static synchronized void appendString(StringBuilder sb, String str) {
         sb.append(str);
     }
@@ -0,0 +1,50 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.controller;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import net.clementlevallois.umigon.eval.models.ModelInterface;
+
+/**
+ * Runs each API call of an evaluation on its own virtual thread.
+ *
+ * The number of calls in flight is capped per model, with a semaphore sized by
+ * {@link ModelInterface#getMaxConcurrentAPICalls()}. The semaphore of a model
+ * is shared by all the datasets evaluated with it, so a slow endpoint only
+ * holds its own permits and never the threads of the other models.
+ *
+ * @author LEVALLOIS
+ */
+public class EvaluationExecutor implements AutoCloseable {
+
+    private final ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Semaphore> permitsPerModel = new ConcurrentHashMap();
+
+    public CompletableFuture<Void> run(Runnable task) {
+        return CompletableFuture.runAsync(task, virtualThreads);
+    }
+
+    public <T> CompletableFuture<T> callModel(ModelInterface model, Supplier<T> call) {
+        Semaphore permits = permitsPerModel.computeIfAbsent(model.getName(), name -> new Semaphore(model.getMaxConcurrentAPICalls(), true));
+        return CompletableFuture.supplyAsync(() -> {
+            permits.acquireUninterruptibly();
+            try {
+                return call.get();
+            } finally {
+                permits.release();
+            }
+        }, virtualThreads);
+    }
+
+    @Override
+    public void close() {
+        virtualThreads.close();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.controller;
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.json.bind.JsonbException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+
+/**
+ * An append-only log of the predictions of one model on one dataset, written
+ * as each prediction arrives: one document in json per line.
+ *
+ * If a run is interrupted, the next run reloads the journal and only sends
+ * the documents that are not in it. The journal is deleted once the file with
+ * all the predictions has been written.
+ *
+ * @author LEVALLOIS
+ */
+public class EvaluationJournal implements AutoCloseable {
+
+    private final Path path;
+    private final Jsonb jsonb = JsonbBuilder.create();
+    private FileChannel fileChannel;
+
+    public EvaluationJournal(Path path) {
+        this.path = path;
+    }
+
+    public Map<String, AnnotatedDocument> load() {
+        Map<String, AnnotatedDocument> journaled = new HashMap();
+        if (!Files.exists(path)) {
+            return journaled;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    AnnotatedDocument doc = jsonb.fromJson(line, AnnotatedDocument.class);
+                    journaled.put(doc.getId(), doc);
+                } catch (JsonbException ex) {
+                    // the last line can be truncated if the run was killed while writing it: this document will be sent again
+                    System.out.println("skipping an incomplete line in the journal " + path);
+                }
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(EvaluationJournal.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return journaled;
+    }
+
+    public synchronized void append(AnnotatedDocument doc) {
+        try {
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(jsonb.toJson(doc) + "\n");
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(EvaluationJournal.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    public synchronized void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            Logger.getLogger(EvaluationJournal.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+            } catch (IOException ex) {
+                Logger.getLogger(EvaluationJournal.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            fileChannel = null;
+        }
+    }
+}
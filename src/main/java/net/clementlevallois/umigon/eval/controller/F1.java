@@ -7,17 +7,28 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import net.clementlevallois.umigon.eval.datamodel.Factuality;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Factuality;
 import static net.clementlevallois.umigon.eval.datamodel.Factuality.OBJ;
+import static net.clementlevallois.umigon.eval.datamodel.Factuality.SUBJ;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors.Predictions;
 import net.clementlevallois.umigon.eval.datamodel.Sentiment;
 import static net.clementlevallois.umigon.eval.datamodel.Sentiment.NEGATIVE;
+import static net.clementlevallois.umigon.eval.datamodel.Sentiment.NEUTRAL;
+import static net.clementlevallois.umigon.eval.datamodel.Sentiment.POSITIVE;
+import net.clementlevallois.umigon.eval.datamodel.Task;
+import static net.clementlevallois.umigon.eval.datamodel.Task.FACTUALITY;
+import static net.clementlevallois.umigon.eval.datamodel.Task.SENTIMENT;
 
 /**
+ * The weighted F1 of a model on a dataset, from the {@link ConfusionMatrix}
+ * of its predictions against the gold labels, both taken from the
+ * {@link LabelVectors} of the dataset.
  *
  * @author LEVALLOIS
  */
@@ -29,289 +40,145 @@ public class F1 {
         limitRecordsForTests = i;
     }
 
-    public static float computeBasedOnFactuality(Map<String, AnnotatedDocument> gold, Map<String, AnnotatedDocument> modelToBeEvaluated, String datasetName, String modelName, boolean printErrors) {
-        try {
-            float factualFalseNegatives = 0;
-            float factualFalsePositives = 0;
-            float factualTruePositives = 0;
-            float subjectiveFalseNegatives = 0;
-            float subjectiveFalsePositives = 0;
-            float subjectiveTruePositives = 0;
-            StringBuilder sbGoldLabelObjective = new StringBuilder();
-            StringBuilder sbGoldLabelSubjective = new StringBuilder();
-
-            int trueFactualInstances = 0;
-            int trueSubjectiveInstances = 0;
+    /**
+     * The confusion matrices of a model on the tasks of a dataset, and the
+     * texts it misclassified, by gold label.
+     */
+    public static class ConfusionMatrices {
 
-            sbGoldLabelObjective.append("gold label was objective not subjective: ");
-            sbGoldLabelObjective.append("\n");
-            sbGoldLabelObjective.append("\n");
-            sbGoldLabelSubjective.append("gold label was subjective not objective: ");
-            sbGoldLabelSubjective.append("\n");
-            sbGoldLabelSubjective.append("\n");
+        private final ConfusionMatrix<Sentiment> sentiment = new ConfusionMatrix(Sentiment.class);
+        private final ConfusionMatrix<Factuality> factuality = new ConfusionMatrix(Factuality.class);
+        private final Map<Sentiment, StringBuilder> misclassifiedSentiment = new EnumMap(Sentiment.class);
+        private final Map<Factuality, StringBuilder> misclassifiedFactuality = new EnumMap(Factuality.class);
 
-            int i = 0;
-
-            Set<Map.Entry<String, AnnotatedDocument>> entrySet = modelToBeEvaluated.entrySet();
-            for (Map.Entry<String, AnnotatedDocument> entry : entrySet) {
-                if (i++ > limitRecordsForTests) {
-                    break;
-                }
-                try {
-                    String idOfDocument = entry.getKey();
-                    AnnotatedDocument docWithPredictedLabel = entry.getValue();
-                    Factuality predictedLabelFactuality = docWithPredictedLabel.getAnnotation().get().getFactuality();
+        public ConfusionMatrix<Sentiment> getSentiment() {
+            return sentiment;
+        }
 
-                    AnnotatedDocument goldDoc = gold.get(idOfDocument);
-                    Factuality goldLabelFactuality = goldDoc.getAnnotation().get().getFactuality();
-                    switch (goldLabelFactuality) {
-                        case OBJ ->
-                            trueFactualInstances++;
-                        case SUBJ ->
-                            trueSubjectiveInstances++;
-                        case NOT_SET ->
-                            System.out.println("a doc had no factuality set");
-                    }
-                    
-                    
-                    if (goldLabelFactuality.equals(predictedLabelFactuality) && goldLabelFactuality.equals(Factuality.OBJ)) {
-                        factualTruePositives++;
-                    }
-                    if (goldLabelFactuality.equals(predictedLabelFactuality) && goldLabelFactuality.equals(Factuality.SUBJ)) {
-                        subjectiveTruePositives++;
-                    }
-                    if (goldLabelFactuality.equals(Factuality.OBJ) & predictedLabelFactuality.equals(Factuality.SUBJ)) {
-                        if (printErrors) {
-                            sbGoldLabelObjective.append(goldDoc.getText());
-                            sbGoldLabelObjective.append("\n");
-                            sbGoldLabelObjective.append("----");
-                            sbGoldLabelObjective.append("\n");
-                        }
-                        subjectiveFalsePositives++;
-                        factualFalseNegatives++;
-                    }
-                    if (goldLabelFactuality.equals(Factuality.SUBJ) & predictedLabelFactuality.equals(Factuality.OBJ)) {
-                        if (printErrors) {
-                            sbGoldLabelSubjective.append(goldDoc.getText());
-                            sbGoldLabelSubjective.append("\n");
-                            sbGoldLabelSubjective.append("----");
-                            sbGoldLabelSubjective.append("\n");
-                        }
-                        subjectiveFalseNegatives++;
-                        factualFalsePositives++;
-                    }
-                } catch (Exception e) {
-                    System.out.println("ex: " + e);
-                }
-            }
-            float factualRecall = factualTruePositives / (factualTruePositives + factualFalseNegatives);
-            float subjectiveRecall = subjectiveTruePositives / (subjectiveTruePositives + subjectiveFalseNegatives);
+        public ConfusionMatrix<Factuality> getFactuality() {
+            return factuality;
+        }
 
-            float factualPrecision = factualTruePositives / (factualTruePositives + factualFalsePositives);
-            float subjectivePrecision = subjectiveTruePositives / (subjectiveTruePositives + subjectiveFalsePositives);
+        public Map<Sentiment, StringBuilder> getMisclassifiedSentiment() {
+            return misclassifiedSentiment;
+        }
 
-            float factualF1 = (2 * factualTruePositives) / (2 * factualTruePositives + factualFalsePositives + factualFalseNegatives);
-            float subjectiveF1 = (2 * subjectiveTruePositives) / (2 * subjectiveTruePositives + subjectiveFalsePositives + subjectiveFalseNegatives);
+        public Map<Factuality, StringBuilder> getMisclassifiedFactuality() {
+            return misclassifiedFactuality;
+        }
+    }
 
-            System.out.println("F1 factual class: " + factualF1);
-            System.out.println("F1 subjective class: " + subjectiveF1);
+    /**
+     * The weighted F1 of a model on each of the tasks (SENTIMENT and / or
+     * FACTUALITY), from the confusion matrices of
+     * {@link #confusionMatrices}.
+     */
+    public static Map<Task, Float> computeInOnePass(LabelVectors labels, Predictions predictions, Set<Task> tasks, String datasetName, String modelName, boolean printErrors) {
+        ConfusionMatrices matrices = confusionMatrices(labels, predictions, tasks, printErrors);
+        Map<Task, Float> weightedF1s = new EnumMap(Task.class);
+        if (tasks.contains(SENTIMENT)) {
+            weightedF1s.put(SENTIMENT, reportOnSentiment(matrices.getSentiment(), printErrors ? matrices.getMisclassifiedSentiment() : null, datasetName, modelName));
+        }
+        if (tasks.contains(FACTUALITY)) {
+            weightedF1s.put(FACTUALITY, reportOnFactuality(matrices.getFactuality(), printErrors ? matrices.getMisclassifiedFactuality() : null, datasetName, modelName));
+        }
+        return weightedF1s;
+    }
 
-            float weightedF1;
-            if (trueFactualInstances == 0) {
-                weightedF1 = subjectiveF1;
-            } else if (trueSubjectiveInstances == 0) {
-                weightedF1 = factualF1;
-            } else {
-                weightedF1 = (factualF1 * trueFactualInstances + subjectiveF1 * trueSubjectiveInstances) / (trueFactualInstances + trueSubjectiveInstances);
+    /**
+     * The confusion matrices of all the tasks, filled in the same walk through
+     * the documents. The documents without a gold label or without a
+     * prediction are left out.
+     *
+     * @param keepMisclassified whether to collect the texts of the documents
+     * that got another label than their gold label
+     */
+    public static ConfusionMatrices confusionMatrices(LabelVectors labels, Predictions predictions, Set<Task> tasks, boolean keepMisclassified) {
+        ConfusionMatrices matrices = new ConfusionMatrices();
+        boolean scoreSentiment = tasks.contains(SENTIMENT);
+        boolean scoreFactuality = tasks.contains(FACTUALITY);
+        Sentiment[] sentiments = Sentiment.values();
+        Factuality[] factualities = Factuality.values();
+        byte[] goldSentiment = labels.getGoldLabels(SENTIMENT);
+        byte[] goldFactuality = labels.getGoldLabels(FACTUALITY);
+        byte[] predictedSentiment = predictions.getLabels(SENTIMENT);
+        byte[] predictedFactuality = predictions.getLabels(FACTUALITY);
+        int predicted = 0;
+        for (int i = 0; i < goldSentiment.length; i++) {
+            if (predictedSentiment[i] == LabelVectors.NO_LABEL && predictedFactuality[i] == LabelVectors.NO_LABEL) {
+                continue;
             }
-
-            if (printErrors) {
-                Files.writeString(Path.of(datasetName, "results", modelName + " - objective statement misclassified as subjective.txt"), sbGoldLabelObjective.toString(), StandardCharsets.UTF_8);
-                Files.writeString(Path.of(datasetName, "results", modelName + " - subjective statement misclassified as objective.txt"), sbGoldLabelSubjective.toString(), StandardCharsets.UTF_8);
+            if (predicted++ > limitRecordsForTests) {
+                break;
+            }
+            if (scoreSentiment) {
+                add(matrices.sentiment, sentiments, goldSentiment[i], predictedSentiment[i], labels, i, keepMisclassified ? matrices.misclassifiedSentiment : null);
+            }
+            if (scoreFactuality) {
+                add(matrices.factuality, factualities, goldFactuality[i], predictedFactuality[i], labels, i, keepMisclassified ? matrices.misclassifiedFactuality : null);
             }
-            return weightedF1;
-        } catch (IOException ex) {
-            Logger.getLogger(F1.class.getName()).log(Level.SEVERE, null, ex);
         }
-        return 0f;
+        return matrices;
     }
 
-    public static float computeBasedOnSentiment(Map<String, AnnotatedDocument> gold, Map<String, AnnotatedDocument> modelToBeEvaluated, String datasetname, String modelName, boolean printErrors) {
-        try {
-            float positiveClassFalseNegatives = 0;
-            float positiveClassFalsePositives = 0;
-            float positiveClassTruePositives = 0;
-            float positiveClassTrueNegatives = 0;
-            float negativeClassFalseNegatives = 0;
-            float negativeClassFalsePositives = 0;
-            float negativeClassTruePositives = 0;
-            float negativeClassTrueNegatives = 0;
-            float neutralClassFalseNegatives = 0;
-            float neutralClassFalsePositives = 0;
-            float neutralClassTruePositives = 0;
-            float neutralClassTrueNegatives = 0;
-
-            int truePositiveInstances = 0;
-            int trueNegativeInstances = 0;
-            int trueNeutralInstances = 0;
-
-            StringBuilder sbGoldLabelPositive = new StringBuilder();
-            StringBuilder sbGoldLabelNegative = new StringBuilder();
-            StringBuilder sbGoldLabelNeutral = new StringBuilder();
-
-            sbGoldLabelPositive.append("gold label was positive: ");
-            sbGoldLabelPositive.append("\n");
-            sbGoldLabelPositive.append("\n");
-            sbGoldLabelNegative.append("gold label was negative: ");
-            sbGoldLabelNegative.append("\n");
-            sbGoldLabelNegative.append("\n");
-            sbGoldLabelNeutral.append("gold label was neutral: ");
-            sbGoldLabelNeutral.append("\n");
-            sbGoldLabelNeutral.append("\n");
-
-            Set<Map.Entry<String, AnnotatedDocument>> entrySet = modelToBeEvaluated.entrySet();
-            int i = 0;
-            for (Map.Entry<String, AnnotatedDocument> entry : entrySet) {
-                if (i++ > limitRecordsForTests) {
-                    break;
-                }
-                try {
-                    String idOfDocument = entry.getKey();
-                    AnnotatedDocument docWithPredictedLabel = entry.getValue();
-                    Sentiment predictedLabel = docWithPredictedLabel.getAnnotation().get().getSentiment();
-
-                    AnnotatedDocument goldDoc = gold.get(idOfDocument);
-                    Sentiment goldLabel = goldDoc.getAnnotation().get().getSentiment();
-                    switch (goldLabel) {
-                        case NEGATIVE ->
-                            trueNegativeInstances++;
-                        case POSITIVE ->
-                            truePositiveInstances++;
-                        case NEUTRAL ->
-                            trueNeutralInstances++;
-                    }
-
-                    if (goldLabel.equals(predictedLabel) & predictedLabel.equals(Sentiment.POSITIVE)) {
-                        positiveClassTruePositives++;
-                    }
-                    if (goldLabel.equals(predictedLabel) & predictedLabel.equals(Sentiment.NEUTRAL)) {
-                        neutralClassTruePositives++;
-                    }
-                    if (goldLabel.equals(predictedLabel) & predictedLabel.equals(Sentiment.NEGATIVE)) {
-                        negativeClassTruePositives++;
-                    }
-                    if (goldLabel.equals(Sentiment.POSITIVE) & predictedLabel.equals(Sentiment.NEUTRAL)) {
-                        if (printErrors) {
-                            sbGoldLabelPositive.append(goldDoc.getText());
-                            sbGoldLabelPositive.append("\n");
-                            sbGoldLabelPositive.append("----");
-                            sbGoldLabelPositive.append("\n");
-                        }
-                        positiveClassFalseNegatives++;
-                        neutralClassFalsePositives++;
-                        negativeClassTrueNegatives++;
-                    }
-                    if (goldLabel.equals(Sentiment.POSITIVE) & predictedLabel.equals(Sentiment.NEGATIVE)) {
-                        if (printErrors) {
-                            sbGoldLabelPositive.append(goldDoc.getText());
-                            sbGoldLabelPositive.append("\n");
-                            sbGoldLabelPositive.append("----");
-                            sbGoldLabelPositive.append("\n");
-                        }
-                        positiveClassFalseNegatives++;
-                        neutralClassTrueNegatives++;
-                        negativeClassFalsePositives++;
-                    }
-                    if (goldLabel.equals(Sentiment.NEGATIVE) & predictedLabel.equals(Sentiment.NEUTRAL)) {
-                        if (printErrors) {
-                            sbGoldLabelNegative.append(goldDoc.getText());
-                            sbGoldLabelNegative.append("\n");
-                            sbGoldLabelNegative.append("----");
-                            sbGoldLabelNegative.append("\n");
-                        }
-                        neutralClassFalsePositives++;
-                        negativeClassFalseNegatives++;
-                        positiveClassTrueNegatives++;
-                    }
-                    if (goldLabel.equals(Sentiment.NEGATIVE) & predictedLabel.equals(Sentiment.POSITIVE)) {
-                        if (printErrors) {
-                            sbGoldLabelNegative.append(goldDoc.getText());
-                            sbGoldLabelNegative.append("\n");
-                            sbGoldLabelNegative.append("----");
-                            sbGoldLabelNegative.append("\n");
-                        }
-                        neutralClassTrueNegatives++;
-                        negativeClassFalseNegatives++;
-                        positiveClassFalsePositives++;
-                    }
-                    if (goldLabel.equals(Sentiment.NEUTRAL) & predictedLabel.equals(Sentiment.NEGATIVE)) {
-                        if (printErrors) {
-                            sbGoldLabelNeutral.append(goldDoc.getText());
-                            sbGoldLabelNeutral.append("\n");
-                            sbGoldLabelNeutral.append("----");
-                            sbGoldLabelNeutral.append("\n");
-                        }
-                        neutralClassFalseNegatives++;
-                        positiveClassTrueNegatives++;
-                        negativeClassFalsePositives++;
-                    }
-                    if (goldLabel.equals(Sentiment.NEUTRAL) & predictedLabel.equals(Sentiment.POSITIVE)) {
-                        if (printErrors) {
-                            sbGoldLabelNeutral.append(goldDoc.getText());
-                            sbGoldLabelNeutral.append("\n");
-                            sbGoldLabelNeutral.append("----");
-                            sbGoldLabelNeutral.append("\n");
-                        }
-                        neutralClassFalseNegatives++;
-                        positiveClassFalsePositives++;
-                        negativeClassTrueNegatives++;
-                    }
-                } catch (Exception e) {
-                    System.out.println("ex: " + e);
-                }
-            }
-            if (printErrors) {
-                Files.writeString(Path.of(datasetname, "results", modelName + "  - positive sentiment misclassified.txt"), sbGoldLabelPositive.toString(), StandardCharsets.UTF_8);
-                Files.writeString(Path.of(datasetname, "results", modelName + " - negative sentiment misclassified.txt"), sbGoldLabelNegative.toString(), StandardCharsets.UTF_8);
-                Files.writeString(Path.of(datasetname, "results", modelName + " - neutral sentiment misclassified.txt"), sbGoldLabelNeutral.toString(), StandardCharsets.UTF_8);
+    private static <E extends Enum<E>> void add(ConfusionMatrix<E> matrix, E[] labelOfOrdinal, byte goldLabel, byte predictedLabel, LabelVectors labels, int index, Map<E, StringBuilder> misclassifiedByGoldLabel) {
+        if (goldLabel == LabelVectors.NO_LABEL || predictedLabel == LabelVectors.NO_LABEL) {
+            return;
+        }
+        matrix.add(goldLabel, predictedLabel);
+        if (misclassifiedByGoldLabel != null && goldLabel != predictedLabel) {
+            E gold = labelOfOrdinal[goldLabel];
+            E predicted = labelOfOrdinal[predictedLabel];
+            if (!gold.name().equals("NOT_SET") && !predicted.name().equals("NOT_SET")) {
+                misclassifiedByGoldLabel.computeIfAbsent(gold, label -> new StringBuilder())
+                        .append(labels.getText(index)).append("\n").append("----").append("\n");
             }
+        }
+    }
 
-            float positiveRecall = positiveClassTruePositives / (positiveClassTruePositives + positiveClassFalseNegatives);
-            float negativeRecall = negativeClassTruePositives / (negativeClassTruePositives + negativeClassFalseNegatives);
-            float neutralRecall = neutralClassTruePositives / (neutralClassTruePositives + neutralClassFalseNegatives);
-
-            float positivePrecision = positiveClassTruePositives / (positiveClassTruePositives + positiveClassFalsePositives);
-            float negativePrecision = negativeClassTruePositives / (negativeClassTruePositives + negativeClassFalsePositives);
-            float neutralPrecision = neutralClassTruePositives / (neutralClassTruePositives + neutralClassFalsePositives);
-
-            float positiveClassF1 = 2 * positiveClassTruePositives / (2 * positiveClassTruePositives + positiveClassFalsePositives + positiveClassFalseNegatives);
-            float negativeClassF1 = 2 * negativeClassTruePositives / (2 * negativeClassTruePositives + negativeClassFalsePositives + negativeClassFalseNegatives);
-            float neutralClassF1 = 2 * neutralClassTruePositives / (2 * neutralClassTruePositives + neutralClassFalsePositives + neutralClassFalseNegatives);
-
-            if (Float.isNaN(positiveClassF1)) {
-                System.out.println("positive class had no entry");
-                positiveClassF1 = 0;
+    private static float reportOnFactuality(ConfusionMatrix<Factuality> matrix, Map<Factuality, StringBuilder> misclassified, String datasetName, String modelName) {
+        System.out.println("F1 factual class: " + matrix.f1(OBJ));
+        System.out.println("F1 subjective class: " + matrix.f1(SUBJ));
+
+        if (misclassified != null) {
+            try {
+                writeErrors(Path.of(datasetName, "results", modelName + " - objective statement misclassified as subjective.txt"), "gold label was objective not subjective: ", misclassified.get(OBJ));
+                writeErrors(Path.of(datasetName, "results", modelName + " - subjective statement misclassified as objective.txt"), "gold label was subjective not objective: ", misclassified.get(SUBJ));
+            } catch (IOException ex) {
+                Logger.getLogger(F1.class.getName()).log(Level.SEVERE, null, ex);
+                return 0f;
             }
-            if (Float.isNaN(negativeClassF1)) {
-                System.out.println("negative class had no entry");
-                negativeClassF1 = 0;
-            }
-            if (Float.isNaN(neutralClassF1)) {
-                System.out.println("neutral class had no entry");
-                neutralClassF1 = 0;
+        }
+        return matrix.weightedF1();
+    }
+
+    private static float reportOnSentiment(ConfusionMatrix<Sentiment> matrix, Map<Sentiment, StringBuilder> misclassified, String datasetname, String modelName) {
+        if (misclassified != null) {
+            try {
+                writeErrors(Path.of(datasetname, "results", modelName + "  - positive sentiment misclassified.txt"), "gold label was positive: ", misclassified.get(POSITIVE));
+                writeErrors(Path.of(datasetname, "results", modelName + " - negative sentiment misclassified.txt"), "gold label was negative: ", misclassified.get(NEGATIVE));
+                writeErrors(Path.of(datasetname, "results", modelName + " - neutral sentiment misclassified.txt"), "gold label was neutral: ", misclassified.get(NEUTRAL));
+            } catch (IOException ex) {
+                Logger.getLogger(F1.class.getName()).log(Level.SEVERE, null, ex);
+                return 0f;
             }
+        }
 
-            System.out.println("F1 positive class: " + positiveClassF1);
-            System.out.println("F1 negative class: " + negativeClassF1);
-            System.out.println("F1 neutral class: " + neutralClassF1);
+        for (Sentiment sentiment : new Sentiment[]{POSITIVE, NEGATIVE, NEUTRAL}) {
+            float f1 = matrix.f1(sentiment);
+            if (Float.isNaN(f1)) {
+                System.out.println(sentiment.name().toLowerCase() + " class had no entry");
+                f1 = 0;
+            }
+            System.out.println("F1 " + sentiment.name().toLowerCase() + " class: " + f1);
+        }
 
-            float weightedF1 = (positiveClassF1 * truePositiveInstances + negativeClassF1 * trueNegativeInstances + neutralClassF1 * trueNeutralInstances) / (truePositiveInstances + trueNegativeInstances + trueNeutralInstances);
+        return matrix.weightedF1();
+    }
 
-            return weightedF1;
-        } catch (IOException ex) {
-            Logger.getLogger(F1.class.getName()).log(Level.SEVERE, null, ex);
-        }
-        return 0f;
+    private static void writeErrors(Path path, String header, StringBuilder texts) throws IOException {
+        String content = header + "\n" + "\n" + (texts == null ? "" : texts.toString());
+        Files.writeString(path, content, StandardCharsets.UTF_8);
     }
 
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.controller;
+
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.json.bind.JsonbException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
+import net.clementlevallois.umigon.eval.datasets.DatasetInterface;
+import net.clementlevallois.umigon.eval.models.ModelInterface;
+import net.clementlevallois.umigon.eval.utils.Utils;
+
+/**
+ * Decides what is left to evaluate for a (dataset, model) pair, given the
+ * results already in the "results" folder of the dataset.
+ *
+ * A prediction is kept when its document is still in the golden labels with
+ * the same text, and when the model has not changed since the prediction was
+ * made. The identity of the model (name, task, endpoint, prompt) is written
+ * next to the results in a .manifest file. Results without a manifest were
+ * produced before it existed and are trusted. The predictions whose call to
+ * the model was given up are flagged in the results, and only these are sent
+ * again.
+ *
+ * @author LEVALLOIS
+ */
+public class IncrementalEvaluation {
+
+    private static final String FINGERPRINT = "model_fingerprint";
+
+    private final DatasetInterface dataset;
+    private final ModelInterface model;
+    private final Path results;
+    private final Map<String, AnnotatedDocument> reusable = new HashMap();
+    private boolean stale;
+
+    public IncrementalEvaluation(DatasetInterface dataset, ModelInterface model, Path results) {
+        this.dataset = dataset;
+        this.model = model;
+        this.results = results;
+        compareWithPreviousResults();
+    }
+
+    /**
+     * the predictions of the previous results that are still valid
+     */
+    public Map<String, AnnotatedDocument> getReusablePredictions() {
+        return reusable;
+    }
+
+    /**
+     * true when the previous results cover all the documents to evaluate and
+     * nothing else: the pair does not need to be evaluated again.
+     */
+    public boolean isUpToDate(int limitRecords) {
+        if (stale || !Files.exists(results)) {
+            return false;
+        }
+        return dataset.getGoldenLabels().keySet().stream().limit(limitRecords).allMatch(reusable::containsKey);
+    }
+
+    public void writeManifest() {
+        Properties manifest = new Properties();
+        manifest.setProperty("model", model.getName());
+        manifest.setProperty("task", model.getTask().name());
+        manifest.setProperty(FINGERPRINT, fingerprint(model));
+        try (OutputStream os = Files.newOutputStream(manifestOf(results))) {
+            manifest.store(os, "identity of the model that produced " + results.getFileName());
+        } catch (IOException ex) {
+            Logger.getLogger(IncrementalEvaluation.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void compareWithPreviousResults() {
+        if (!Files.exists(results)) {
+            return;
+        }
+        Optional<String> fingerprintOfResults = readFingerprint(manifestOf(results));
+        if (fingerprintOfResults.isPresent() && !fingerprintOfResults.get().equals(fingerprint(model))) {
+            System.out.println("the model " + model.getName() + " has changed since " + results + " was written: all documents will be evaluated again");
+            stale = true;
+            return;
+        }
+        Map<String, AnnotatedDocument> previousPredictions;
+        Jsonb jsonb = JsonbBuilder.create();
+        try (BufferedReader reader = Files.newBufferedReader(results, StandardCharsets.UTF_8)) {
+            previousPredictions = jsonb.fromJson(reader, new HashMap<String, AnnotatedDocument>() {
+            }.getClass().getGenericSuperclass());
+        } catch (IOException | JsonbException ex) {
+            Logger.getLogger(IncrementalEvaluation.class.getName()).log(Level.WARNING, "unreadable results, all documents will be evaluated again: " + results, ex);
+            stale = true;
+            return;
+        }
+        Map<String, AnnotatedDocument> gold = dataset.getGoldenLabels();
+        for (AnnotatedDocument previous : previousPredictions.values()) {
+            AnnotatedDocument goldDoc = gold.get(previous.getId());
+            if (goldDoc == null || !Objects.equals(goldDoc.getText(), previous.getText())) {
+                // a document removed from the gold labels or whose text was edited
+                stale = true;
+                continue;
+            }
+            Optional<Annotation> annotation = previous.getAnnotation();
+            if (annotation.isPresent() && !isFailedPrediction(annotation.get())) {
+                reusable.put(previous.getId(), previous);
+            } else {
+                stale = true;
+            }
+        }
+    }
+
+    private static boolean isFailedPrediction(Annotation annotation) {
+        // an API call that was given up is flagged: a NOT_SET label that came from an answer of the model is a finished prediction
+        return Boolean.TRUE.equals(annotation.getCallFailed());
+    }
+
+    private static Optional<String> readFingerprint(Path manifestPath) {
+        if (!Files.exists(manifestPath)) {
+            return Optional.empty();
+        }
+        Properties manifest = new Properties();
+        try (InputStream is = Files.newInputStream(manifestPath)) {
+            manifest.load(is);
+        } catch (IOException ex) {
+            Logger.getLogger(IncrementalEvaluation.class.getName()).log(Level.WARNING, null, ex);
+            return Optional.empty();
+        }
+        return Optional.ofNullable(manifest.getProperty(FINGERPRINT));
+    }
+
+    private static String fingerprint(ModelInterface model) {
+        return Utils.sha256(model.getName() + "\u0000" + model.getTask() + "\u0000" + model.getAPIWebLink() + "\u0000" + model.getPromptTemplate());
+    }
+
+    private static Path manifestOf(Path results) {
+        String fileName = results.getFileName().toString().replaceFirst("\\.txt$", "") + ".manifest";
+        return results.resolveSibling(fileName);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.controller;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.models.ModelInterface;
+import net.clementlevallois.umigon.eval.utils.Utils;
+
+/**
+ * Keeps on disk the raw response of each API call, so that a re-run is served
+ * locally instead of being sent (and billed) again.
+ *
+ * The key is a hash of the name of the model, its prompt template and the text
+ * of the document: a changed prompt or text is a cache miss.
+ *
+ * @author LEVALLOIS
+ */
+public class ResponseCache {
+
+    private final Path root;
+
+    public ResponseCache(Path root) {
+        this.root = root;
+    }
+
+    public String sendApiCall(ModelInterface model, AnnotatedDocument doc) {
+        Path entry = pathOfEntry(model, doc);
+        if (Files.exists(entry)) {
+            try {
+                return Files.readString(entry, StandardCharsets.UTF_8);
+            } catch (IOException ex) {
+                Logger.getLogger(ResponseCache.class.getName()).log(Level.WARNING, "unreadable cache entry, calling the API again", ex);
+            }
+        }
+        String response = model.sendApiCall(doc);
+        store(entry, response);
+        return response;
+    }
+
+    /**
+     * Removes all the responses cached for a model, for instance after a
+     * change in its endpoint that the prompt template does not reflect.
+     */
+    public void invalidate(String modelName) {
+        Path modelDir = root.resolve(modelName);
+        if (!Files.exists(modelDir)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(modelDir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (IOException | UncheckedIOException ex) {
+            Logger.getLogger(ResponseCache.class.getName()).log(Level.SEVERE, "could not invalidate the cache of " + modelName, ex);
+        }
+    }
+
+    private void store(Path entry, String response) {
+        try {
+            Files.createDirectories(entry.getParent());
+            Path temp = Files.createTempFile(entry.getParent(), "entry", ".tmp");
+            Files.writeString(temp, response, StandardCharsets.UTF_8);
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            Logger.getLogger(ResponseCache.class.getName()).log(Level.WARNING, "could not cache a response of " + entry, ex);
+        }
+    }
+
+    private Path pathOfEntry(ModelInterface model, AnnotatedDocument doc) {
+        String key = Utils.sha256(model.getName() + "\u0000" + model.getPromptTemplate() + "\u0000" + doc.getText());
+        // entries are spread in 256 sub folders to keep directories small
+        return root.resolve(model.getName()).resolve(key.substring(0, 2)).resolve(key + ".json");
+    }
+}
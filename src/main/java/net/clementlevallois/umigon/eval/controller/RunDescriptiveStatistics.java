@@ -7,13 +7,16 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.DecimalFormat;
-import java.util.Map;
-import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Factuality;
 import static net.clementlevallois.umigon.eval.datamodel.Factuality.OBJ;
 import static net.clementlevallois.umigon.eval.datamodel.Factuality.SUBJ;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
 import static net.clementlevallois.umigon.eval.datamodel.Sentiment.NEGATIVE;
 import static net.clementlevallois.umigon.eval.datamodel.Sentiment.NEUTRAL;
 import static net.clementlevallois.umigon.eval.datamodel.Sentiment.POSITIVE;
+import static net.clementlevallois.umigon.eval.datamodel.Task.FACTUALITY;
+import static net.clementlevallois.umigon.eval.datamodel.Task.SENTIMENT;
 import net.clementlevallois.umigon.eval.datasets.DatasetInterface;
 
 /**
@@ -30,31 +33,15 @@ public class RunDescriptiveStatistics {
         controller.initDataSetsAndModels();
 
         for (DatasetInterface dataset : Controller.datasets) {
-            float countObj = 0;
-            float countSubj = 0;
-            float countNeutral = 0;
-            float countPositive = 0;
-            float countNegative = 0;
             dataset.read();
-            Map<String, AnnotatedDocument> goldenLabels = dataset.getGoldenLabels();
-            for (Map.Entry<String, AnnotatedDocument> entry : goldenLabels.entrySet()) {
-                AnnotatedDocument doc = entry.getValue();
-                if (doc.getAnnotation().get().getFactuality().equals(OBJ)) {
-                    countObj++;
-                }
-                if (doc.getAnnotation().get().getFactuality().equals(SUBJ)) {
-                    countSubj++;
-                }
-                if (doc.getAnnotation().get().getSentiment().equals(POSITIVE)) {
-                    countPositive++;
-                }
-                if (doc.getAnnotation().get().getSentiment().equals(NEGATIVE)) {
-                    countNegative++;
-                }
-                if (doc.getAnnotation().get().getSentiment().equals(NEUTRAL)) {
-                    countNeutral++;
-                }
-            }
+            LabelVectors labels = new LabelVectors(dataset.getGoldenLabels());
+            int[] factualityCounts = countLabels(labels.getGoldLabels(FACTUALITY), Factuality.values().length);
+            int[] sentimentCounts = countLabels(labels.getGoldLabels(SENTIMENT), Sentiment.values().length);
+            float countObj = factualityCounts[OBJ.ordinal()];
+            float countSubj = factualityCounts[SUBJ.ordinal()];
+            float countNeutral = sentimentCounts[NEUTRAL.ordinal()];
+            float countPositive = sentimentCounts[POSITIVE.ordinal()];
+            float countNegative = sentimentCounts[NEGATIVE.ordinal()];
             StringBuilder sb = new StringBuilder();
             sb.append("descriptive statistics on the golden labels for dataset ").append(dataset.getName());
             sb.append("\n");
@@ -78,6 +65,16 @@ public class RunDescriptiveStatistics {
         }
     }
 
+    private static int[] countLabels(byte[] labels, int numberOfLabels) {
+        int[] counts = new int[numberOfLabels];
+        for (byte label : labels) {
+            if (label != LabelVectors.NO_LABEL) {
+                counts[label]++;
+            }
+        }
+        return counts;
+    }
+
     private static StringBuilder addSentiment(StringBuilder sb, float countPositive, float countNegative, float countNeutral, float total) {
         sb.append("labels on sentiment:");
         sb.append("\n");
@@ -0,0 +1,174 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.controller;
+
+import java.util.SplittableRandom;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors.Predictions;
+import net.clementlevallois.umigon.eval.datamodel.ModelComparison;
+import net.clementlevallois.umigon.eval.datamodel.Task;
+
+/**
+ * Tells whether two models really differ on a dataset, or whether the gap
+ * between their scores could come from the particular documents of the
+ * dataset.
+ *
+ * The predictions of the two models are taken from the label vectors of the
+ * dataset, on the documents that have a gold label and a prediction of both.
+ * Two paired tests are run on them:
+ *
+ * - McNemar's test on the documents that only one of the models got right
+ * (exact binomial test below 25 such documents, chi-square with continuity
+ * correction above).
+ *
+ * - an approximate randomization test on the difference of weighted F1: the
+ * predictions of the two models are swapped at random on each document, and
+ * the p-value is the share of shuffles giving a difference at least as large
+ * as the one observed. The documents where both models agree do not change
+ * under a swap: they are counted once, and the shuffles only go through the
+ * documents where the models disagree.
+ *
+ * @author LEVALLOIS
+ */
+public class SignificanceTests {
+
+    public static final int SHUFFLES = 10_000;
+
+    private static final long SEED = 20231120L;
+
+    public static <E extends Enum<E>> ModelComparison compare(String datasetName, Task task, LabelVectors labels,
+            String modelA, Predictions predictionsOfA,
+            String modelB, Predictions predictionsOfB,
+            Class<E> labelType) {
+        byte[] gold = labels.getGoldLabels(task);
+        byte[] ofA = predictionsOfA.getLabels(task);
+        byte[] ofB = predictionsOfB.getLabels(task);
+        int[] scored = labels.scoredDocuments(task, ofA, ofB);
+        int n = scored.length;
+        int[] goldLabels = new int[n];
+        int[] labelsOfA = new int[n];
+        int[] labelsOfB = new int[n];
+        for (int d = 0; d < n; d++) {
+            goldLabels[d] = gold[scored[d]];
+            labelsOfA[d] = ofA[scored[d]];
+            labelsOfB[d] = ofB[scored[d]];
+        }
+
+        int onlyARight = 0;
+        int onlyBRight = 0;
+        ConfusionMatrix<E> matrixOfA = new ConfusionMatrix(labelType);
+        ConfusionMatrix<E> matrixOfB = new ConfusionMatrix(labelType);
+        for (int i = 0; i < n; i++) {
+            boolean aRight = labelsOfA[i] == goldLabels[i];
+            boolean bRight = labelsOfB[i] == goldLabels[i];
+            if (aRight && !bRight) {
+                onlyARight++;
+            } else if (bRight && !aRight) {
+                onlyBRight++;
+            }
+            matrixOfA.add(goldLabels[i], labelsOfA[i]);
+            matrixOfB.add(goldLabels[i], labelsOfB[i]);
+        }
+
+        ModelComparison comparison = new ModelComparison();
+        comparison.setDatasetName(datasetName);
+        comparison.setTask(task);
+        comparison.setModelA(modelA);
+        comparison.setModelB(modelB);
+        comparison.setNumberOfDocuments(n);
+        if (n == 0) {
+            comparison.setF1Difference(Float.NaN);
+            comparison.setMcNemarPValue(1);
+            comparison.setRandomizationPValue(1);
+            return comparison;
+        }
+        comparison.setF1Difference(matrixOfA.weightedF1() - matrixOfB.weightedF1());
+        comparison.setMcNemarPValue(mcNemar(onlyARight, onlyBRight));
+        long seed = SEED ^ (datasetName + "\u0000" + task + "\u0000" + modelA + "\u0000" + modelB).hashCode();
+        comparison.setRandomizationPValue(approximateRandomization(labelType, goldLabels, labelsOfA, labelsOfB, SHUFFLES, seed));
+        return comparison;
+    }
+
+    /**
+     * @param onlyARight the number of documents that model A got right and
+     * model B got wrong
+     * @param onlyBRight the reverse
+     * @return the two-sided p-value
+     */
+    public static double mcNemar(int onlyARight, int onlyBRight) {
+        int discordant = onlyARight + onlyBRight;
+        if (discordant == 0) {
+            return 1;
+        }
+        if (discordant < 25) {
+            // exact: the smaller count against a binomial(discordant, 1/2)
+            int smaller = Math.min(onlyARight, onlyBRight);
+            double term = Math.pow(0.5, discordant);
+            double tail = 0;
+            for (int i = 0; i <= smaller; i++) {
+                tail += term;
+                term = term * (discordant - i) / (i + 1);
+            }
+            return Math.min(1, 2 * tail);
+        }
+        double chiSquare = Math.pow(Math.abs(onlyARight - onlyBRight) - 1, 2) / discordant;
+        // the survival function of a chi-square with 1 degree of freedom
+        return erfc(Math.sqrt(chiSquare / 2));
+    }
+
+    public static <E extends Enum<E>> double approximateRandomization(Class<E> labelType, int[] goldLabels, int[] labelsOfA, int[] labelsOfB, int shuffles, long seed) {
+        ConfusionMatrix<E> agreements = new ConfusionMatrix(labelType);
+        ConfusionMatrix<E> observedA = new ConfusionMatrix(labelType);
+        ConfusionMatrix<E> observedB = new ConfusionMatrix(labelType);
+        int[] disagreements = new int[goldLabels.length];
+        int numberOfDisagreements = 0;
+        for (int i = 0; i < goldLabels.length; i++) {
+            observedA.add(goldLabels[i], labelsOfA[i]);
+            observedB.add(goldLabels[i], labelsOfB[i]);
+            if (labelsOfA[i] == labelsOfB[i]) {
+                agreements.add(goldLabels[i], labelsOfA[i]);
+            } else {
+                disagreements[numberOfDisagreements++] = i;
+            }
+        }
+        if (numberOfDisagreements == 0) {
+            return 1;
+        }
+        // a tolerance so that the shuffle giving back the observed split counts despite the rounding of floats
+        double observed = Math.abs(observedA.weightedF1() - observedB.weightedF1()) - 1e-7;
+        SplittableRandom random = new SplittableRandom(seed);
+        int atLeastAsLarge = 0;
+        for (int s = 0; s < shuffles; s++) {
+            ConfusionMatrix<E> shuffledA = new ConfusionMatrix(agreements);
+            ConfusionMatrix<E> shuffledB = new ConfusionMatrix(agreements);
+            for (int d = 0; d < numberOfDisagreements; d++) {
+                int i = disagreements[d];
+                if (random.nextBoolean()) {
+                    shuffledA.add(goldLabels[i], labelsOfB[i]);
+                    shuffledB.add(goldLabels[i], labelsOfA[i]);
+                } else {
+                    shuffledA.add(goldLabels[i], labelsOfA[i]);
+                    shuffledB.add(goldLabels[i], labelsOfB[i]);
+                }
+            }
+            if (Math.abs(shuffledA.weightedF1() - shuffledB.weightedF1()) >= observed) {
+                atLeastAsLarge++;
+            }
+        }
+        return (atLeastAsLarge + 1) / (double) (shuffles + 1);
+    }
+
+    /**
+     * The complementary error function, with a fractional error below 1.2e-7
+     * (Numerical Recipes, erfcc).
+     */
+    private static double erfc(double x) {
+        double z = Math.abs(x);
+        double t = 1 / (1 + 0.5 * z);
+        double result = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+                + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+                + t * (-0.82215223 + t * 0.17087277)))))))));
+        return x >= 0 ? result : 2 - result;
+    }
+}
@@ -15,45 +15,64 @@ public class Annotation implements Serializable{
     private Factuality factuality;
     private Sentiment sentiment;
     private SpeechSource speechSource;
+    // the probability of the label given by the model, when it gives one
+    private Float confidence;
+    // true when the call to the model was given up: the labels are NOT_SET for lack of an answer, not because the answer had no label
+    private Boolean callFailed;
 
     public Annotation() {
-        this(null, null, null, null);
+        this(null, null, null, null, null);
     }
 
     private Annotation(final String annotatedTextFragment,
             final Factuality factuality, final Sentiment sentiment,
-            final SpeechSource speechSource) {
+            final SpeechSource speechSource, final Float confidence) {
 
         this.annotatedTextFragment = annotatedTextFragment == null ? "" : annotatedTextFragment;
         this.factuality = factuality == null ? Factuality.NOT_SET : factuality;
         this.sentiment = sentiment == null ? Sentiment.NOT_SET : sentiment;
         this.speechSource = speechSource == null ? SpeechSource.NOT_SET : speechSource;
+        this.confidence = confidence;
     }
 
     public static Annotation empty() {
         return new Annotation();
     }
 
+    /**
+     * The annotation of a document whose call to the model was given up. The
+     * next incremental run sends this document again.
+     */
+    public static Annotation failedCall() {
+        Annotation annotation = new Annotation();
+        annotation.setCallFailed(Boolean.TRUE);
+        return annotation;
+    }
+
     protected static Annotation of(final String annotatedTextFragment,
             final Factuality factuality, final Sentiment sentiment,
-            final SpeechSource speechSource) {
-        return new Annotation(annotatedTextFragment, factuality, sentiment, speechSource);
+            final SpeechSource speechSource, final Float confidence) {
+        return new Annotation(annotatedTextFragment, factuality, sentiment, speechSource, confidence);
     }
 
     public Annotation withAnnotatedFragment(final String annotatedTextFragment) {
-        return of(annotatedTextFragment, factuality, sentiment, speechSource);
+        return of(annotatedTextFragment, factuality, sentiment, speechSource, confidence);
     }
 
     public Annotation withFactuality(final Factuality factuality) {
-        return of(annotatedTextFragment, factuality, sentiment, speechSource);
+        return of(annotatedTextFragment, factuality, sentiment, speechSource, confidence);
     }
 
     public Annotation withSentiment(final Sentiment sentiment) {
-        return of(annotatedTextFragment, factuality, sentiment, speechSource);
+        return of(annotatedTextFragment, factuality, sentiment, speechSource, confidence);
     }
 
     public Annotation withSpeechSource(final SpeechSource speechSource) {
-        return of(annotatedTextFragment, factuality, sentiment, speechSource);
+        return of(annotatedTextFragment, factuality, sentiment, speechSource, confidence);
+    }
+
+    public Annotation withConfidence(final Float confidence) {
+        return of(annotatedTextFragment, factuality, sentiment, speechSource, confidence);
     }
 
     public String getAnnotatedTextFragment() {
@@ -72,6 +91,14 @@ public class Annotation implements Serializable{
         return speechSource;
     }
 
+    public Float getConfidence() {
+        return confidence;
+    }
+
+    public Boolean getCallFailed() {
+        return callFailed;
+    }
+
     public void setAnnotatedTextFragment(String annotatedTextFragment) {
         this.annotatedTextFragment = annotatedTextFragment;
     }
@@ -87,6 +114,14 @@ public class Annotation implements Serializable{
     public void setSpeechSource(SpeechSource speechSource) {
         this.speechSource = speechSource;
     }
+
+    public void setConfidence(Float confidence) {
+        this.confidence = confidence;
+    }
+
+    public void setCallFailed(Boolean callFailed) {
+        this.callFailed = callFailed;
+    }
     
     
 
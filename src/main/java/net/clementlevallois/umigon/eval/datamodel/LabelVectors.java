@@ -0,0 +1,142 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.datamodel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The gold labels of a dataset in columns: each document gets a dense index,
+ * and the labels of each task are kept in a byte array at that index (the
+ * ordinal of the label, or {@link #NO_LABEL}). The predictions of a model are
+ * aligned on the same indexes, so that the scores, bootstrap, significance
+ * tests and statistics run over arrays, with no lookup by document id and no
+ * Optional per document.
+ *
+ * Built once per dataset: the ids are only hashed when the predictions of a
+ * model are aligned.
+ *
+ * @author LEVALLOIS
+ */
+public class LabelVectors {
+
+    public static final byte NO_LABEL = -1;
+
+    private final Map<String, Integer> indexOfDocument;
+    private final String[] texts;
+    private final byte[] goldSentiment;
+    private final byte[] goldFactuality;
+
+    /**
+     * The predictions of a model on the documents of a dataset, at the indexes
+     * of the documents in the {@link LabelVectors} of the dataset.
+     */
+    public static class Predictions {
+
+        private final byte[] sentiment;
+        private final byte[] factuality;
+
+        private Predictions(int size) {
+            this.sentiment = new byte[size];
+            this.factuality = new byte[size];
+            Arrays.fill(sentiment, NO_LABEL);
+            Arrays.fill(factuality, NO_LABEL);
+        }
+
+        public byte[] getLabels(Task task) {
+            return switch (task) {
+                case SENTIMENT ->
+                    sentiment;
+                case FACTUALITY ->
+                    factuality;
+                default ->
+                    throw new IllegalArgumentException("no single label for the task " + task);
+            };
+        }
+    }
+
+    public LabelVectors(Map<String, AnnotatedDocument> goldenLabels) {
+        int size = goldenLabels.size();
+        this.indexOfDocument = new HashMap(size * 2);
+        this.texts = new String[size];
+        this.goldSentiment = new byte[size];
+        this.goldFactuality = new byte[size];
+        int index = 0;
+        for (Map.Entry<String, AnnotatedDocument> entry : goldenLabels.entrySet()) {
+            indexOfDocument.put(entry.getKey(), index);
+            texts[index] = entry.getValue().getText();
+            Optional<Annotation> annotation = entry.getValue().getAnnotation();
+            goldSentiment[index] = annotation.isPresent() ? (byte) annotation.get().getSentiment().ordinal() : NO_LABEL;
+            goldFactuality[index] = annotation.isPresent() ? (byte) annotation.get().getFactuality().ordinal() : NO_LABEL;
+            index++;
+        }
+    }
+
+    public int size() {
+        return texts.length;
+    }
+
+    public String getText(int index) {
+        return texts[index];
+    }
+
+    public byte[] getGoldLabels(Task task) {
+        return switch (task) {
+            case SENTIMENT ->
+                goldSentiment;
+            case FACTUALITY ->
+                goldFactuality;
+            default ->
+                throw new IllegalArgumentException("no single label for the task " + task);
+        };
+    }
+
+    /**
+     * The indexes of the documents that count in the scores of a task: those
+     * with a gold label other than NOT_SET and a prediction in each of these
+     * labels of models. The bootstrap and the significance tests resample the
+     * same documents.
+     */
+    public int[] scoredDocuments(Task task, byte[]... predictedLabels) {
+        byte[] goldLabels = getGoldLabels(task);
+        int notSet = task == Task.SENTIMENT ? Sentiment.NOT_SET.ordinal() : Factuality.NOT_SET.ordinal();
+        int[] scored = new int[goldLabels.length];
+        int n = 0;
+        for (int i = 0; i < goldLabels.length; i++) {
+            if (goldLabels[i] == NO_LABEL || goldLabels[i] == notSet) {
+                continue;
+            }
+            boolean predicted = true;
+            for (byte[] labels : predictedLabels) {
+                predicted = predicted && labels[i] != NO_LABEL;
+            }
+            if (predicted) {
+                scored[n++] = i;
+            }
+        }
+        return Arrays.copyOf(scored, n);
+    }
+
+    /**
+     * Puts the predictions of a model at the indexes of their documents. The
+     * predictions of documents that are not in the dataset are left out.
+     */
+    public Predictions align(Map<String, AnnotatedDocument> predictions) {
+        Predictions aligned = new Predictions(size());
+        for (Map.Entry<String, AnnotatedDocument> entry : predictions.entrySet()) {
+            Integer index = indexOfDocument.get(entry.getKey());
+            if (index == null) {
+                continue;
+            }
+            Optional<Annotation> annotation = entry.getValue().getAnnotation();
+            if (annotation.isPresent()) {
+                aligned.sentiment[index] = (byte) annotation.get().getSentiment().ordinal();
+                aligned.factuality[index] = (byte) annotation.get().getFactuality().ordinal();
+            }
+        }
+        return aligned;
+    }
+}
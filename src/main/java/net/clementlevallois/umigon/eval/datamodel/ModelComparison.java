@@ -0,0 +1,94 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.datamodel;
+
+/**
+ * The paired significance tests of two models on the same documents of a
+ * dataset, for one task.
+ *
+ * @author LEVALLOIS
+ */
+public class ModelComparison {
+
+    private String datasetName;
+    private Task task;
+    private String modelA;
+    private String modelB;
+    private int numberOfDocuments;
+    private float f1Difference;
+    private double mcNemarPValue;
+    private double randomizationPValue;
+
+    public String getDatasetName() {
+        return datasetName;
+    }
+
+    public void setDatasetName(String datasetName) {
+        this.datasetName = datasetName;
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    public void setTask(Task task) {
+        this.task = task;
+    }
+
+    public String getModelA() {
+        return modelA;
+    }
+
+    public void setModelA(String modelA) {
+        this.modelA = modelA;
+    }
+
+    public String getModelB() {
+        return modelB;
+    }
+
+    public void setModelB(String modelB) {
+        this.modelB = modelB;
+    }
+
+    /**
+     * The number of documents with a gold label and a prediction of both
+     * models.
+     */
+    public int getNumberOfDocuments() {
+        return numberOfDocuments;
+    }
+
+    public void setNumberOfDocuments(int numberOfDocuments) {
+        this.numberOfDocuments = numberOfDocuments;
+    }
+
+    /**
+     * The weighted F1 of model A minus the one of model B, on the documents
+     * they both labelled.
+     */
+    public float getF1Difference() {
+        return f1Difference;
+    }
+
+    public void setF1Difference(float f1Difference) {
+        this.f1Difference = f1Difference;
+    }
+
+    public double getMcNemarPValue() {
+        return mcNemarPValue;
+    }
+
+    public void setMcNemarPValue(double mcNemarPValue) {
+        this.mcNemarPValue = mcNemarPValue;
+    }
+
+    public double getRandomizationPValue() {
+        return randomizationPValue;
+    }
+
+    public void setRandomizationPValue(double randomizationPValue) {
+        this.randomizationPValue = randomizationPValue;
+    }
+}
@@ -15,6 +15,9 @@ public class Score implements Comparable {
 
     private final DecimalFormat decimalFormat = new DecimalFormat("0.00");
     private float score;
+    // the 95% confidence interval of the score, by bootstrap
+    private float lowerBound = Float.NaN;
+    private float upperBound = Float.NaN;
     private String modelName;
     private String datasetName;
     private int datasetSize;
@@ -29,6 +32,19 @@ public class Score implements Comparable {
         this.score = score;
     }
 
+    public float getLowerBound() {
+        return lowerBound;
+    }
+
+    public float getUpperBound() {
+        return upperBound;
+    }
+
+    public void setConfidenceInterval(float lowerBound, float upperBound) {
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+    }
+
     public String getModelName() {
         return modelName;
     }
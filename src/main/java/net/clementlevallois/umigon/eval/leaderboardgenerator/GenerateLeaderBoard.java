@@ -16,10 +16,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentSkipListSet;
+import net.clementlevallois.umigon.eval.controller.SignificanceTests;
+import net.clementlevallois.umigon.eval.datamodel.ModelComparison;
 import net.clementlevallois.umigon.eval.datamodel.OverallScore;
 import net.clementlevallois.umigon.eval.datamodel.Score;
+import net.clementlevallois.umigon.eval.datamodel.Task;
 import static net.clementlevallois.umigon.eval.datamodel.Task.FACTUALITY;
 import static net.clementlevallois.umigon.eval.datamodel.Task.SENTIMENT;
 import net.clementlevallois.umigon.eval.datasets.DatasetInterface;
@@ -37,15 +41,17 @@ public class GenerateLeaderBoard {
     Set<ModelInterface> models;
     ConcurrentSkipListSet <Score> scores;
     List<OverallScore> overallScores;
+    List<ModelComparison> comparisons;
     private final DecimalFormat decimalFormat = new DecimalFormat("0.000");
     Map<String, ModelInterface> modelsDetails = new HashMap();
     Map<String, DatasetInterface> datasetsDetails = new HashMap();
 
-    public GenerateLeaderBoard(Set<DatasetInterface> datasets, Set<ModelInterface> models, ConcurrentSkipListSet <Score> scores, List<OverallScore> overallScores) {
+    public GenerateLeaderBoard(Set<DatasetInterface> datasets, Set<ModelInterface> models, ConcurrentSkipListSet <Score> scores, List<OverallScore> overallScores, List<ModelComparison> comparisons) {
         this.datasets = datasets;
         this.models = models;
         this.scores = scores;
         this.overallScores = overallScores;
+        this.comparisons = comparisons;
         for (ModelInterface model : models) {
             modelsDetails.put(model.getName(), model);
         }
@@ -70,6 +76,8 @@ public class GenerateLeaderBoard {
         .append("\n")
         .append(writeLeaderBoardOnIndividualDatasetsForFactuality(scores))
         .append("\n")
+        .append(writeSignificanceTests(comparisons, FACTUALITY))
+        .append("\n")
         .append(fragments.get(4))
         .append("\n")
         .append(overallScoresForFactuality(overallScores))
@@ -78,6 +86,8 @@ public class GenerateLeaderBoard {
         .append("\n")
         .append(writeLeaderBoardOnIndividualDatasetsForSentiment(scores))
         .append("\n")
+        .append(writeSignificanceTests(comparisons, SENTIMENT))
+        .append("\n")
         .append(fragments.get(6))
         .append("\n")
         .append(overallScoresForSentiment(overallScores))
@@ -168,7 +178,7 @@ public class GenerateLeaderBoard {
             row.getColumns().add("[" + name + "](" + currModel.getPaperWebLink()+")");
             TreeSet<Score> scoresForOneModel = modelsToScoresForSentiment.get(name);
             for (Score scoreValue : scoresForOneModel) {
-                row.getColumns().add(decimalFormat.format(scoreValue.getScore()));
+                row.getColumns().add(formatWithInterval(scoreValue));
             }
             tableBuilder.addRow(row);
         }
@@ -214,7 +224,7 @@ public class GenerateLeaderBoard {
             row.getColumns().add("[" + name + "](" + currModel.getPaperWebLink()+")");
             TreeSet<Score> scoreValues = modelsToScoresForFactuality.get(name);
             for (Score scoreValue : scoreValues) {
-                row.getColumns().add(decimalFormat.format(scoreValue.getScore()));
+                row.getColumns().add(formatWithInterval(scoreValue));
             }
             tableBuilder.addRow(row);
         }
@@ -222,6 +232,58 @@ public class GenerateLeaderBoard {
         return tableBuilder.build().toString();
     }
 
+    /**
+     * One row per pair of models, one column per dataset: the difference of
+     * weighted F1 between the two models, and the p-values of the paired tests.
+     */
+    public String writeSignificanceTests(List<ModelComparison> comparisons, Task task) {
+        Set<String> datasetNames = new TreeSet();
+        Map<String, Map<String, ModelComparison>> pairsToComparisons = new TreeMap();
+        for (ModelComparison comparison : comparisons) {
+            if (comparison.getTask().equals(task)) {
+                datasetNames.add(comparison.getDatasetName());
+                String pair = comparison.getModelA() + " vs " + comparison.getModelB();
+                pairsToComparisons.computeIfAbsent(pair, p -> new HashMap()).put(comparison.getDatasetName(), comparison);
+            }
+        }
+        if (pairsToComparisons.isEmpty()) {
+            return "";
+        }
+
+        Table.Builder tableBuilder = new Table.Builder();
+
+        // inserting headers
+        TableRow headers = new TableRow();
+        headers.getColumns().add("");
+        for (String name : datasetNames) {
+            DatasetInterface currDataset = datasetsDetails.get(name);
+            headers.getColumns().add("[" + name + "](" + currDataset.getDataWebLink() + ")");
+        }
+        tableBuilder.addRow(headers);
+
+        for (Map.Entry<String, Map<String, ModelComparison>> entry : pairsToComparisons.entrySet()) {
+            TableRow row = new TableRow();
+            row.getColumns().add(entry.getKey());
+            for (String name : datasetNames) {
+                ModelComparison comparison = entry.getValue().get(name);
+                if (comparison == null || comparison.getNumberOfDocuments() == 0) {
+                    row.getColumns().add("");
+                    continue;
+                }
+                boolean significant = comparison.getRandomizationPValue() < 0.05 && comparison.getMcNemarPValue() < 0.05;
+                String difference = (comparison.getF1Difference() >= 0 ? "+" : "") + decimalFormat.format(comparison.getF1Difference());
+                String pValues = decimalFormat.format(comparison.getRandomizationPValue()) + " / " + decimalFormat.format(comparison.getMcNemarPValue());
+                row.getColumns().add((significant ? "**" + difference + "**" : difference) + " <sub>" + pValues + "</sub>");
+            }
+            tableBuilder.addRow(row);
+        }
+
+        return "Paired significance tests: difference of weighted F1 between the two models on the documents they both labelled, "
+                + "with the p-values of an approximate randomization test (" + SignificanceTests.SHUFFLES + " shuffles) and of McNemar's test. "
+                + "In bold, the differences significant at 0.05 for both tests.\n\n"
+                + tableBuilder.build().toString();
+    }
+
     public String overallScoresForFactuality(List<OverallScore> overallScores) {
         Table.Builder tableBuilder = new Table.Builder();
 
@@ -299,6 +361,13 @@ public class GenerateLeaderBoard {
         return tableBuilder.build().toString();
     }
 
+    private String formatWithInterval(Score score) {
+        if (Float.isNaN(score.getLowerBound())) {
+            return decimalFormat.format(score.getScore());
+        }
+        return decimalFormat.format(score.getScore()) + " <sub>[" + decimalFormat.format(score.getLowerBound()) + ", " + decimalFormat.format(score.getUpperBound()) + "]</sub>";
+    }
+
     private Map<Integer, String> loadFragments() {
 
         Map<Integer, String> fragments = new HashMap();
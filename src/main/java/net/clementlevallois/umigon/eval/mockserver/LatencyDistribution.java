@@ -0,0 +1,37 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.mockserver;
+
+import java.util.Random;
+
+/**
+ * How long the mock server takes to answer a call.
+ *
+ * @author LEVALLOIS
+ */
+public interface LatencyDistribution {
+
+    public long sampleMillis(Random random);
+
+    public static LatencyDistribution none() {
+        return random -> 0;
+    }
+
+    public static LatencyDistribution constant(long millis) {
+        return random -> millis;
+    }
+
+    public static LatencyDistribution uniform(long minMillis, long maxMillis) {
+        return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+    }
+
+    /**
+     * A long tail like the one of real inference endpoints: most calls close
+     * to the median, a few much slower. A sigma of 0.5 puts the p99 at about
+     * 3 times the median.
+     */
+    public static LatencyDistribution logNormal(long medianMillis, double sigma) {
+        return random -> (long) (medianMillis * Math.exp(sigma * random.nextGaussian()));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.mockserver;
+
+import java.time.Duration;
+
+/**
+ * The way the mock server behaves: its latency, the share of calls that fail
+ * with a 500, how long it answers 503 while "loading the model" after it
+ * starts, how many calls it takes at once before answering 429, and the
+ * longest input it accepts before answering 400.
+ *
+ * @author LEVALLOIS
+ */
+public class MockBehavior {
+
+    private final LatencyDistribution latency;
+    private final double errorRate;
+    private final Duration loadingPhase;
+    private final int maxConcurrentCalls;
+    private final int maxInputLength;
+
+    private MockBehavior(LatencyDistribution latency, double errorRate, Duration loadingPhase, int maxConcurrentCalls, int maxInputLength) {
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.loadingPhase = loadingPhase;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxInputLength = maxInputLength;
+    }
+
+    /**
+     * A server that answers everything at once, without errors.
+     */
+    public static MockBehavior healthy() {
+        return new MockBehavior(LatencyDistribution.none(), 0, Duration.ZERO, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public MockBehavior withLatency(LatencyDistribution latency) {
+        return new MockBehavior(latency, errorRate, loadingPhase, maxConcurrentCalls, maxInputLength);
+    }
+
+    public MockBehavior withErrorRate(double errorRate) {
+        return new MockBehavior(latency, errorRate, loadingPhase, maxConcurrentCalls, maxInputLength);
+    }
+
+    public MockBehavior withLoadingPhase(Duration loadingPhase) {
+        return new MockBehavior(latency, errorRate, loadingPhase, maxConcurrentCalls, maxInputLength);
+    }
+
+    public MockBehavior withMaxConcurrentCalls(int maxConcurrentCalls) {
+        return new MockBehavior(latency, errorRate, loadingPhase, maxConcurrentCalls, maxInputLength);
+    }
+
+    public MockBehavior withMaxInputLength(int maxInputLength) {
+        return new MockBehavior(latency, errorRate, loadingPhase, maxConcurrentCalls, maxInputLength);
+    }
+
+    public LatencyDistribution getLatency() {
+        return latency;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    public Duration getLoadingPhase() {
+        return loadingPhase;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public int getMaxInputLength() {
+        return maxInputLength;
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.mockserver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.bind.Jsonb;
+import jakarta.json.bind.JsonbBuilder;
+import jakarta.json.bind.JsonbException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
+import net.clementlevallois.umigon.eval.datamodel.Factuality;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import net.clementlevallois.umigon.eval.datasets.DatasetInterface;
+import net.clementlevallois.umigon.eval.models.ModelInterface;
+import net.clementlevallois.umigon.eval.transport.EndpointOverrides;
+
+/**
+ * An embedded server that stands in for the endpoints of the models, to run
+ * the benchmark offline and load test the controller without spending quota.
+ *
+ * Each endpoint answers in the shape the model expects. The label of a text is
+ * the one recorded in the results folders when there is one, so that a run on
+ * the mock gives the same scores as the live run; otherwise it is derived from
+ * a hash of the text. The latency, errors, 503 while loading and 429 when too
+ * many calls come at once follow the {@link MockBehavior}.
+ *
+ * The OpenAI endpoint also stands in for the Batch API: the upload of a JSONL
+ * file, the creation of a batch (run at once), its status and the download of
+ * its output.
+ *
+ * @author LEVALLOIS
+ */
+public class MockInferenceServer implements AutoCloseable {
+
+    private final MockBehavior behavior;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap();
+    private final Map<String, Map<String, Annotation>> recordedLabels = new ConcurrentHashMap();
+    private final AtomicInteger callsInFlight = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+    // the files and batches of the Batch API of OpenAI, by id
+    private final Map<String, String> files = new ConcurrentHashMap();
+    private final Map<String, String> outputFileOfBatches = new ConcurrentHashMap();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Random random = new Random();
+    private long startedAt;
+
+    private static class Endpoint {
+
+        private final ResponseShape shape;
+        private final List<ModelInterface> models = new CopyOnWriteArrayList();
+
+        private Endpoint(ResponseShape shape) {
+            this.shape = shape;
+        }
+    }
+
+    public MockInferenceServer(MockBehavior behavior) throws IOException {
+        this.behavior = behavior;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts a mock server for all the endpoints of these models, and sends
+     * their calls to it.
+     */
+    public static MockInferenceServer standInForAllEndpoints(Set<ModelInterface> models, MockBehavior behavior) throws IOException {
+        MockInferenceServer mock = new MockInferenceServer(behavior);
+        mock.start();
+        for (ModelInterface model : models) {
+            // the hosts are those of the models: keep them in sync
+            switch (model.getName()) {
+                case "umigon" -> {
+                    mock.standInFor(model, "localhost:7002", ResponseShape.UMIGON);
+                    mock.standInFor(model, "nocodefunctions.com", ResponseShape.UMIGON);
+                }
+                case "TimeLMs" ->
+                    mock.standInFor(model, "km49e5ysuccbhkg3.eu-west-1.aws.endpoints.huggingface.cloud", ResponseShape.HUGGINGFACE_SENTIMENT);
+                case "Thesis_Titan" ->
+                    mock.standInFor(model, "c463vy3xx8s1dx18.us-east-1.aws.endpoints.huggingface.cloud", ResponseShape.HUGGINGFACE_SUBJECTIVITY);
+                case "OpenHermes-2-Mistral-7B-basic-prompt", "OpenHermes-2-Mistral-7B-advanced-prompt" ->
+                    mock.standInFor(model, "zb7s4fpu9b8a4hqs.us-east-1.aws.endpoints.huggingface.cloud", ResponseShape.HUGGINGFACE_TEXT_GENERATION);
+                case "gpt-3.5-turbo-basic-prompt", "gpt-3.5-turbo-advanced-prompt" ->
+                    mock.standInFor(model, "api.openai.com", ResponseShape.OPENAI_CHAT);
+                default ->
+                    System.out.println("no mock endpoint for the model " + model.getName() + ": its calls will go to its real endpoint");
+            }
+        }
+        return mock;
+    }
+
+    public void start() {
+        server.start();
+        startedAt = System.nanoTime();
+        System.out.println("mock inference server listening on " + getBaseUri());
+    }
+
+    public URI getBaseUri() {
+        return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+    }
+
+    /**
+     * Answers the calls of this model to this endpoint. Several models can
+     * share an endpoint: the prompt template of the model tells them apart.
+     */
+    public void standInFor(ModelInterface model, String authority, ResponseShape shape) {
+        String path = "/" + authority.replace(':', '_');
+        endpoints.computeIfAbsent(path, p -> new Endpoint(shape)).models.add(model);
+        EndpointOverrides.redirect(authority, URI.create(getBaseUri() + path));
+    }
+
+    /**
+     * Loads the labels predicted by the models in a live run, from the results
+     * folders of the datasets.
+     */
+    public void replayRecordedLabels(Set<DatasetInterface> datasets) {
+        Jsonb jsonb = JsonbBuilder.create();
+        for (Endpoint endpoint : endpoints.values()) {
+            for (ModelInterface model : endpoint.models) {
+                Map<String, Annotation> labels = recordedLabels.computeIfAbsent(model.getName(), name -> new ConcurrentHashMap());
+                for (DatasetInterface dataset : datasets) {
+                    Path results = Path.of(dataset.getName(), "results", dataset.getName() + "_evaluated_with_" + model.getName() + ".txt");
+                    if (!Files.exists(results)) {
+                        continue;
+                    }
+                    try (BufferedReader reader = Files.newBufferedReader(results, StandardCharsets.UTF_8)) {
+                        Map<String, AnnotatedDocument> predictions = jsonb.fromJson(reader, new HashMap<String, AnnotatedDocument>() {
+                        }.getClass().getGenericSuperclass());
+                        for (AnnotatedDocument doc : predictions.values()) {
+                            Optional<Annotation> annotation = doc.getAnnotation();
+                            if (doc.getText() != null && annotation.isPresent()) {
+                                labels.put(doc.getText(), annotation.get());
+                            }
+                        }
+                    } catch (IOException | JsonbException ex) {
+                        Logger.getLogger(MockInferenceServer.class.getName()).log(Level.WARNING, "could not replay the labels of " + results, ex);
+                    }
+                }
+            }
+        }
+    }
+
+    public int getNumberOfCalls() {
+        return calls.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.close();
+        EndpointOverrides.clear();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        calls.incrementAndGet();
+        int inFlight = callsInFlight.incrementAndGet();
+        try (exchange) {
+            String body;
+            try (InputStream is = exchange.getRequestBody()) {
+                body = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            String path = exchange.getRequestURI().getPath();
+            String endpointPath = path.indexOf('/', 1) < 0 ? path : path.substring(0, path.indexOf('/', 1));
+            Endpoint endpoint = endpoints.get(endpointPath);
+            if (endpoint == null) {
+                respond(exchange, 404, error("no mock endpoint at " + path));
+                return;
+            }
+            Thread.sleep(Math.max(0, behavior.getLatency().sampleMillis(random)));
+            long sinceStart = System.nanoTime() - startedAt;
+            if (sinceStart < behavior.getLoadingPhase().toNanos()) {
+                long estimatedSeconds = (behavior.getLoadingPhase().toNanos() - sinceStart) / 1_000_000_000L + 1;
+                exchange.getResponseHeaders().add("Retry-After", String.valueOf(estimatedSeconds));
+                respond(exchange, 503, Json.createObjectBuilder().add("error", "Model is currently loading").add("estimated_time", estimatedSeconds).build().toString());
+                return;
+            }
+            if (inFlight > behavior.getMaxConcurrentCalls()) {
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 429, error("Rate limit reached"));
+                return;
+            }
+            if (random.nextDouble() < behavior.getErrorRate()) {
+                respond(exchange, 500, error("Internal server error"));
+                return;
+            }
+            String pathInEndpoint = path.substring(endpointPath.length());
+            if (endpoint.shape == ResponseShape.OPENAI_CHAT && (pathInEndpoint.startsWith("/v1/files") || pathInEndpoint.startsWith("/v1/batches"))) {
+                handleBatchApi(exchange, endpoint, pathInEndpoint, body);
+                return;
+            }
+            List<Annotation> labels = new ArrayList();
+            for (String input : endpoint.shape.inputs(body)) {
+                if (input.length() > behavior.getMaxInputLength()) {
+                    respond(exchange, 400, error("Input is too long"));
+                    return;
+                }
+                labels.add(labelOf(endpoint, input));
+            }
+            respond(exchange, 200, endpoint.shape.response(labels));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException ex) {
+            respond(exchange, 400, error("bad request: " + ex.getMessage()));
+        } finally {
+            callsInFlight.decrementAndGet();
+        }
+    }
+
+    private void handleBatchApi(HttpExchange exchange, Endpoint endpoint, String path, String body) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (method.equals("POST") && path.equals("/v1/files")) {
+            String fileId = "file-mock-" + ids.incrementAndGet();
+            files.put(fileId, fileOfMultipart(exchange.getRequestHeaders().getFirst("Content-Type"), body));
+            respond(exchange, 200, Json.createObjectBuilder().add("id", fileId).add("object", "file").add("purpose", "batch").build().toString());
+        } else if (method.equals("POST") && path.equals("/v1/batches")) {
+            String input = files.get(readObject(body).getString("input_file_id"));
+            if (input == null) {
+                respond(exchange, 404, error("no such file"));
+                return;
+            }
+            StringBuilder output = new StringBuilder();
+            for (String line : input.split("\n")) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonObject request = readObject(line);
+                List<Annotation> labels = new ArrayList();
+                for (String prompt : endpoint.shape.inputs(request.getJsonObject("body").toString())) {
+                    labels.add(labelOf(endpoint, prompt));
+                }
+                JsonObject response = Json.createObjectBuilder().add("status_code", 200).add("request_id", "mock").add("body", readObject(endpoint.shape.response(labels))).build();
+                output.append(Json.createObjectBuilder().add("id", "batch_req_mock").add("custom_id", request.getString("custom_id")).add("response", response).addNull("error").build()).append("\n");
+            }
+            String outputFileId = "file-mock-" + ids.incrementAndGet();
+            files.put(outputFileId, output.toString());
+            String batchId = "batch_mock_" + ids.incrementAndGet();
+            outputFileOfBatches.put(batchId, outputFileId);
+            respond(exchange, 200, Json.createObjectBuilder().add("id", batchId).add("object", "batch").add("status", "validating").build().toString());
+        } else if (method.equals("GET") && path.startsWith("/v1/batches/")) {
+            String batchId = path.substring("/v1/batches/".length());
+            String outputFileId = outputFileOfBatches.get(batchId);
+            if (outputFileId == null) {
+                respond(exchange, 404, error("no such batch"));
+                return;
+            }
+            respond(exchange, 200, Json.createObjectBuilder().add("id", batchId).add("object", "batch").add("status", "completed").add("output_file_id", outputFileId).addNull("error_file_id").build().toString());
+        } else if (method.equals("GET") && path.startsWith("/v1/files/") && path.endsWith("/content")) {
+            String content = files.get(path.substring("/v1/files/".length(), path.length() - "/content".length()));
+            if (content == null) {
+                respond(exchange, 404, error("no such file"));
+                return;
+            }
+            respond(exchange, 200, content);
+        } else {
+            respond(exchange, 404, error("no mock of " + method + " " + path));
+        }
+    }
+
+    private static String fileOfMultipart(String contentType, String body) {
+        String boundary = "--" + contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+        for (String part : body.split(Pattern.quote(boundary))) {
+            if (part.contains("name=\"file\"")) {
+                // the content starts after the headers of the part, and ends with the line break before the next boundary
+                return part.substring(part.indexOf("\r\n\r\n") + 4, part.length() - 2);
+            }
+        }
+        throw new IllegalArgumentException("no file in the multipart body");
+    }
+
+    private static JsonObject readObject(String json) {
+        try (JsonReader jsonReader = Json.createReader(new StringReader(json))) {
+            return jsonReader.readObject();
+        }
+    }
+
+    private Annotation labelOf(Endpoint endpoint, String input) {
+        for (ModelInterface model : endpoint.models) {
+            String[] template = model.getPromptTemplate().split("\\{text\\}", -1);
+            String before = template[0];
+            String after = template.length > 1 ? template[1] : "";
+            if (input.length() >= before.length() + after.length() && input.startsWith(before) && input.endsWith(after)) {
+                String text = input.substring(before.length(), input.length() - after.length());
+                Annotation recorded = recordedLabels.getOrDefault(model.getName(), Map.of()).get(text);
+                return recorded != null ? recorded : hashedLabel(text);
+            }
+        }
+        return hashedLabel(input);
+    }
+
+    private static Annotation hashedLabel(String text) {
+        Sentiment[] sentiments = {Sentiment.POSITIVE, Sentiment.NEGATIVE, Sentiment.NEUTRAL};
+        Sentiment sentiment = sentiments[Math.floorMod(text.hashCode(), sentiments.length)];
+        Factuality factuality = sentiment == Sentiment.NEUTRAL ? Factuality.OBJ : Factuality.SUBJ;
+        return Annotation.empty().withSentiment(sentiment).withFactuality(factuality);
+    }
+
+    private static String error(String message) {
+        return Json.createObjectBuilder().add("error", message).build().toString();
+    }
+
+    private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.mockserver;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
+import net.clementlevallois.umigon.eval.datamodel.Factuality;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+
+/**
+ * The requests and responses of each kind of endpoint of the benchmark, as
+ * the models send and read them.
+ *
+ * @author LEVALLOIS
+ */
+public enum ResponseShape {
+
+    // the Umigon API: the text as the body, an object with the sentiment in return
+    UMIGON {
+        @Override
+        List<String> inputs(String body) {
+            return List.of(body);
+        }
+
+        @Override
+        String response(List<Annotation> labels) {
+            return Json.createObjectBuilder().add("sentiment", sentimentWord(labels.get(0)) + " feeling").build().toString();
+        }
+    },
+    // a Hugging Face classifier of sentiment (TimeLMs): the best label for each input
+    HUGGINGFACE_SENTIMENT {
+        @Override
+        List<String> inputs(String body) {
+            return huggingFaceInputs(body);
+        }
+
+        @Override
+        String response(List<Annotation> labels) {
+            JsonArrayBuilder array = Json.createArrayBuilder();
+            labels.forEach(label -> array.add(Json.createObjectBuilder().add("label", sentimentWord(label)).add("score", 0.9)));
+            return array.build().toString();
+        }
+    },
+    // a Hugging Face classifier of subjectivity (Thesis_Titan): LABEL_0 is objective, LABEL_1 subjective
+    HUGGINGFACE_SUBJECTIVITY {
+        @Override
+        List<String> inputs(String body) {
+            return huggingFaceInputs(body);
+        }
+
+        @Override
+        String response(List<Annotation> labels) {
+            JsonArrayBuilder array = Json.createArrayBuilder();
+            labels.forEach(label -> array.add(Json.createObjectBuilder().add("label", isObjective(label) ? "LABEL_0" : "LABEL_1").add("score", 0.9)));
+            return array.build().toString();
+        }
+    },
+    // a Hugging Face text generation endpoint (Mistral): the prompt in, the continuation out
+    HUGGINGFACE_TEXT_GENERATION {
+        @Override
+        List<String> inputs(String body) {
+            return huggingFaceInputs(body);
+        }
+
+        @Override
+        String response(List<Annotation> labels) {
+            JsonArrayBuilder array = Json.createArrayBuilder();
+            labels.forEach(label -> array.add(Json.createObjectBuilder().add("generated_text", " " + sentimentWord(label) + ".")));
+            return array.build().toString();
+        }
+    },
+    // the chat completions of OpenAI: the system and user messages in, one choice out
+    OPENAI_CHAT {
+        @Override
+        List<String> inputs(String body) {
+            JsonArray messages = readObject(body).getJsonArray("messages");
+            List<String> contents = new ArrayList();
+            for (JsonValue message : messages) {
+                contents.add(message.asJsonObject().getString("content"));
+            }
+            return List.of(String.join("\n", contents));
+        }
+
+        @Override
+        String response(List<Annotation> labels) {
+            JsonObject message = Json.createObjectBuilder().add("role", "assistant").add("content", sentimentWord(labels.get(0))).build();
+            JsonObject choice = Json.createObjectBuilder().add("index", 0).add("message", message).add("finish_reason", "stop").build();
+            return Json.createObjectBuilder().add("id", "mock").add("object", "chat.completion").add("choices", Json.createArrayBuilder().add(choice)).build().toString();
+        }
+    };
+
+    /**
+     * The prompted texts of a request, one per document.
+     */
+    abstract List<String> inputs(String body);
+
+    abstract String response(List<Annotation> labels);
+
+    private static List<String> huggingFaceInputs(String body) {
+        JsonValue inputs = readObject(body).get("inputs");
+        if (inputs.getValueType() == JsonValue.ValueType.STRING) {
+            return List.of(((JsonString) inputs).getString());
+        }
+        List<String> texts = new ArrayList();
+        for (JsonValue input : inputs.asJsonArray()) {
+            texts.add(((JsonString) input).getString());
+        }
+        return texts;
+    }
+
+    private static JsonObject readObject(String body) {
+        try (JsonReader jsonReader = Json.createReader(new StringReader(body))) {
+            return jsonReader.readObject();
+        }
+    }
+
+    private static String sentimentWord(Annotation label) {
+        if (label.getSentiment() == Sentiment.NOT_SET) {
+            return isObjective(label) ? "neutral" : "positive";
+        }
+        return label.getSentiment().name().toLowerCase();
+    }
+
+    private static boolean isObjective(Annotation label) {
+        if (label.getFactuality() == Factuality.NOT_SET) {
+            return label.getSentiment() == Sentiment.NEUTRAL;
+        }
+        return label.getFactuality() == Factuality.OBJ;
+    }
+}
@@ -4,26 +4,22 @@
 package net.clementlevallois.umigon.eval.models;
 
 import io.mikael.urlbuilder.UrlBuilder;
-import jakarta.json.Json;
-import jakarta.json.JsonArray;
-import jakarta.json.JsonArrayBuilder;
-import jakarta.json.JsonObject;
-import jakarta.json.JsonObjectBuilder;
-import jakarta.json.JsonReader;
-import java.io.IOException;
-import java.io.StringReader;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import net.clementlevallois.umigon.eval.controller.Controller;
 import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
 import net.clementlevallois.umigon.eval.datamodel.Factuality;
 import net.clementlevallois.umigon.eval.datamodel.Sentiment;
 import net.clementlevallois.umigon.eval.datamodel.Task;
+import net.clementlevallois.umigon.eval.transport.HttpTransport;
+import net.clementlevallois.umigon.eval.transport.ModelTransport;
+import net.clementlevallois.umigon.eval.transport.Provider;
 
 /**
  *
@@ -31,15 +27,35 @@ import net.clementlevallois.umigon.eval.datamodel.Task;
  */
 public class GPT35AdvancedPrompt implements ModelInterface {
 
-    private final HttpClient httpClient;
+    private final ModelTransport transport;
+
+    private final OpenAIBatch batch;
 
     private final Task task = Task.SENTIMENT;
 
     private final String API_KEY;
 
+    private static final String CONTENT_ROLE_SYSTEM = """
+                                   You are a the equivalent of a human annotator in a data labelling task. The task consists in labelling the sentiment of a text provided by the user. When annotating, be especially attentive to these 3 recommendations:
+                                   1. you should annotate the sentiment expressed by the author of the text, not the sentiment expressed by a person cited in the text.
+                                   2. a sentiment is expressed when the text reflects personal feelings, tastes, or opinions.
+                                   3. a factual, even when it has strong positive or negative prior associations (such as "war" or "happyness"), is not a sentiment.
+                                   
+                                   The label should be a single word: "positive", "negative" or "neutral".
+                                   """;
+
+    private static final String CONTENT_ROLE_USER_BEFORE_TEXT = "The text to label: \n\n";
+
+    private static final PromptTemplate BODY = new PromptTemplate(
+            "{\"model\":\"gpt-3.5-turbo\",\"messages\":["
+            + "{\"role\":\"system\",\"content\":\"" + PromptTemplate.escape(CONTENT_ROLE_SYSTEM) + "\"},"
+            + "{\"role\":\"user\",\"content\":\"" + PromptTemplate.escape(CONTENT_ROLE_USER_BEFORE_TEXT),
+            "\"}]}");
+
     public GPT35AdvancedPrompt() {
-        this.httpClient = HttpClient.newHttpClient();
         this.API_KEY = Controller.OPENAI_API_KEY;
+        this.transport = new ModelTransport("GPT", Provider.OPENAI);
+        this.batch = new OpenAIBatch(API_KEY);
     }
 
     @Override
@@ -63,8 +79,38 @@ public class GPT35AdvancedPrompt implements ModelInterface {
     }
 
     @Override
-    public Boolean areConcurrentAPICallsPossible() {
-        return Boolean.FALSE;
+    public String getPromptTemplate() {
+        return CONTENT_ROLE_SYSTEM + "\n" + CONTENT_ROLE_USER_BEFORE_TEXT + "{text}";
+    }
+
+    @Override
+    public int getMaxConcurrentAPICalls() {
+        // the quota of the OpenAI provider paces the calls, this is enough parallelism to use it fully
+        return 10;
+    }
+
+    @Override
+    public int getBatchSize() {
+        // in batch mode, all the documents of a dataset go in one batch of the OpenAI Batch API
+        return Controller.OPENAI_BATCH_MODE ? OpenAIBatch.MAX_REQUESTS : 1;
+    }
+
+    @Override
+    public List<Annotation> annotateBatch(List<AnnotatedDocument> annotatedDocuments) {
+        return annotateBatch(annotatedDocuments, null);
+    }
+
+    @Override
+    public List<Annotation> annotateBatch(List<AnnotatedDocument> annotatedDocuments, Path batchesInProgress) {
+        Map<String, byte[]> bodies = new LinkedHashMap();
+        annotatedDocuments.forEach(doc -> bodies.put(doc.getId(), BODY.render(doc.getText())));
+        Map<String, String> responses = batch.run(bodies, batchesInProgress);
+        List<Annotation> annotations = new ArrayList();
+        for (AnnotatedDocument doc : annotatedDocuments) {
+            String response = responses.get(doc.getId());
+            annotations.add(response == null ? Annotation.failedCall() : extractAnnotation(response));
+        }
+        return annotations;
     }
 
     @Override
@@ -79,84 +125,29 @@ public class GPT35AdvancedPrompt implements ModelInterface {
 
     @Override
     public String sendApiCall(AnnotatedDocument annotatedDocument) {
+        return transport.send(buildRequest(annotatedDocument));
+    }
 
-        String contentRoleSystem = """
-                                   You are a the equivalent of a human annotator in a data labelling task. The task consists in labelling the sentiment of a text provided by the user. When annotating, be especially attentive to these 3 recommendations:
-                                   1. you should annotate the sentiment expressed by the author of the text, not the sentiment expressed by a person cited in the text.
-                                   2. a sentiment is expressed when the text reflects personal feelings, tastes, or opinions.
-                                   3. a factual, even when it has strong positive or negative prior associations (such as "war" or "happyness"), is not a sentiment.
-                                   
-                                   The label should be a single word: "positive", "negative" or "neutral".
-                                   """;
-        String contentRoleUser = "The text to label: \n\n" + annotatedDocument.getText();
-
-        JsonObjectBuilder overallObject = Json.createObjectBuilder();
-        overallObject.add("model", "gpt-3.5-turbo");
-        JsonArrayBuilder messages = Json.createArrayBuilder();
-        JsonObjectBuilder messageSystemObject = Json.createObjectBuilder();
-        messageSystemObject.add("role", "system");
-        messageSystemObject.add("content", contentRoleSystem);
-        JsonObjectBuilder messageUserObject = Json.createObjectBuilder();
-        messageUserObject.add("role", "user");
-        messageUserObject.add("content", contentRoleUser);
-        messages.add(messageSystemObject);
-        messages.add(messageUserObject);
-        overallObject.add("messages", messages);
-        JsonObject build = overallObject.build();
-        String jsonString = build.toString();
-
+    private HttpRequest buildRequest(AnnotatedDocument annotatedDocument) {
         URI uri = UrlBuilder
                 .empty()
                 .withScheme("https")
                 .withHost("api.openai.com")
                 .withPath("v1/chat/completions").toUri();
 
-        HttpRequest.BodyPublisher bodyPublisher = HttpRequest.BodyPublishers.ofString(jsonString);
-        HttpResponse<String> response = null;
-        int waitloop = 1;
-        HttpRequest request;
-        int sleepBetweenRequests = 150;
-        while (response == null || response.statusCode() != 200) {
-            try {
-                request = HttpRequest.newBuilder()
-                        .POST(bodyPublisher)
-                        .header("Authorization", "Bearer " + API_KEY)
-                        .header("Content-Type", "application/json")
-                        .uri(uri)
-                        .build();
-                response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                if (response.statusCode() != 200) {
-                    System.out.println("");
-                    System.out.println("ERROR: ");
-                    System.out.println(response.body());
-                    System.out.println("-----------");
-                    Thread.sleep(Duration.ofSeconds(1));
-                } else {
-                    // adding a pause between calls corresponding to Tier 1 usage limits
-                    // which are 500 requests per minute (RPM) and 40k tokens per minute for GPT-3.5
-                    Thread.sleep(Duration.ofMillis(sleepBetweenRequests).toMillis());
-                    System.out.print("*");
-                }
-            } catch (IOException | InterruptedException ex) {
-                System.out.println("");
-                System.out.println("internet connexion probably broken for GPT: check it");
-                try {
-                    Thread.sleep(Duration.ofSeconds(3));
-                } catch (InterruptedException ex1) {
-                    Logger.getLogger(GPT35AdvancedPrompt.class.getName()).log(Level.SEVERE, null, ex1);
-                }
-            }
-        }
-        return response.body();
+        HttpRequest.BodyPublisher bodyPublisher = BODY.bodyPublisher(annotatedDocument.getText());
+        return HttpTransport.newRequest()
+                .POST(bodyPublisher)
+                .header("Authorization", "Bearer " + API_KEY)
+                .header("Content-Type", "application/json")
+                .uri(uri)
+                .build();
     }
 
     public Sentiment getLabelOnSentimentFromJson(String response) {
-        JsonReader jsonReader = Json.createReader(new StringReader(response));
-        JsonObject jo = jsonReader.readObject();
-        JsonArray choices = jo.getJsonArray("choices");
-        JsonObject firstChoice = choices.getJsonObject(0);
-        JsonObject message = firstChoice.getJsonObject("message");
-        String label = message.getString("content").toLowerCase();
+        // choices[0].message.content
+        String content = ResponseReader.readString(response, "content", 4);
+        String label = content == null ? "" : content.toLowerCase();
         if (label.contains("positive")) {
             return Sentiment.POSITIVE;
         } else if (label.contains("negative")) {
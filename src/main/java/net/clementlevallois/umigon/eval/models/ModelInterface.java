@@ -3,7 +3,11 @@
  */
 package net.clementlevallois.umigon.eval.models;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
 import net.clementlevallois.umigon.eval.datamodel.Factuality;
 import net.clementlevallois.umigon.eval.datamodel.Sentiment;
 import net.clementlevallois.umigon.eval.datamodel.Task;
@@ -25,11 +29,88 @@ public interface ModelInterface {
     public String getPaperWebLink();
 
     public String getAPIWebLink();
+
+    /**
+     * The prompt in which the text of a document is inserted, with "{text}" as
+     * the placeholder for the text. A change in the prompt gives a different
+     * key in the response cache.
+     */
+    public String getPromptTemplate();
     
-    public Boolean areConcurrentAPICallsPossible();
+    public int getMaxConcurrentAPICalls();
 
     public Sentiment extractSentimentLabelFromAPiResponse(String response);
 
     public Factuality extractFactualityLabelFromAPiResponse(String response);
 
+    /**
+     * The labels of a response for the task of the model. By default each
+     * label is extracted on its own; the models labelling both factuality and
+     * sentiment override this to parse the response only once, and add the
+     * confidence of the prediction when the response has one.
+     */
+    public default Annotation extractAnnotation(String response) {
+        return switch (getTask()) {
+            case FACTUALITY ->
+                Annotation.empty().withFactuality(extractFactualityLabelFromAPiResponse(response));
+            case SENTIMENT ->
+                Annotation.empty().withSentiment(extractSentimentLabelFromAPiResponse(response));
+            case FACTUALITY_AND_SENTIMENT ->
+                Annotation.empty().withSentiment(extractSentimentLabelFromAPiResponse(response)).withFactuality(extractFactualityLabelFromAPiResponse(response));
+            default ->
+                null;
+        };
+    }
+
+    /**
+     * The labels of a document. By default the document is sent to the API of
+     * the model and the labels are read from the response; a model running in
+     * the JVM of the benchmark returns them directly.
+     */
+    public default Annotation annotate(AnnotatedDocument annotatedDocument) {
+        return extractAnnotation(sendApiCall(annotatedDocument));
+    }
+
+    /**
+     * The number of documents the controller gives at once to
+     * {@link #annotateBatch}. 1 for the models that label one document per
+     * call: they are then called through {@link #annotate}, or through the
+     * response cache.
+     */
+    public default int getBatchSize() {
+        return 1;
+    }
+
+    /**
+     * The labels of several documents, in the order of the documents. By
+     * default each document is annotated on its own; a model that can label
+     * many texts in one call overrides this, and its batches are not served by
+     * the response cache.
+     */
+    public default List<Annotation> annotateBatch(List<AnnotatedDocument> annotatedDocuments) {
+        List<Annotation> annotations = new ArrayList();
+        for (AnnotatedDocument annotatedDocument : annotatedDocuments) {
+            annotations.add(annotate(annotatedDocument));
+        }
+        return annotations;
+    }
+
+    /**
+     * Same as {@link #annotateBatch(List)}, for a model whose batches run for
+     * hours on the side of its provider: it keeps the ids of the batches still
+     * running in this file, to poll them again after a restart rather than
+     * sending them twice.
+     */
+    public default List<Annotation> annotateBatch(List<AnnotatedDocument> annotatedDocuments, Path batchesInProgress) {
+        return annotateBatch(annotatedDocuments);
+    }
+
+    /**
+     * True for a model that runs in the JVM of the benchmark: it has no
+     * response to cache, and is called through {@link #annotate}.
+     */
+    public default boolean isInProcess() {
+        return false;
+    }
+
 }
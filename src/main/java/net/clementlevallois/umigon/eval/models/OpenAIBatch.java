@@ -0,0 +1,254 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.models;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.clementlevallois.umigon.eval.transport.ApiCallException;
+import net.clementlevallois.umigon.eval.transport.HttpTransport;
+import net.clementlevallois.umigon.eval.transport.ModelTransport;
+import net.clementlevallois.umigon.eval.transport.Provider;
+import net.clementlevallois.umigon.eval.utils.Utils;
+
+/**
+ * Sends chat completions through the Batch API of OpenAI: all the requests of
+ * a dataset are written to one JSONL file, uploaded, and run as one batch
+ * while this thread polls for its end. The responses are then mapped back to
+ * the ids of the documents.
+ *
+ * The id of a batch is written to a file next to the journal of the eval as
+ * soon as the batch is created, and removed once its results are downloaded:
+ * a run that is stopped while a batch is running polls the same batch when it
+ * starts again, instead of paying for it twice.
+ *
+ * A batch is not paced by the quotas per minute of the chat completions, and
+ * costs half the price. It can take up to 24 hours: it suits a full run of the
+ * benchmark, not a quick test.
+ *
+ * @author LEVALLOIS
+ */
+public class OpenAIBatch {
+
+    // the limit of OpenAI on the number of requests in a batch
+    public static final int MAX_REQUESTS = 50_000;
+
+    private static final String API = "https://api.openai.com/v1/";
+    private static final String ENDPOINT = "/v1/chat/completions";
+    // a fixed boundary keeps the upload identical from one run to the next, for the traffic log
+    private static final String BOUNDARY = "umibench-batch-boundary";
+    private static final Duration FIRST_POLL = Duration.ofSeconds(1);
+    private static final Duration MAX_POLL = Duration.ofSeconds(60);
+    private static final Object BATCHES_IN_PROGRESS_LOCK = new Object();
+
+    private final ModelTransport transport;
+    private final String apiKey;
+
+    public OpenAIBatch(String apiKey) {
+        this.apiKey = apiKey;
+        this.transport = new ModelTransport("OpenAI batch", Provider.OPENAI_BATCH);
+    }
+
+    /**
+     * @param bodiesById the json body of each chat completion, by document id
+     * @param batchesInProgress the file where the ids of the batches still
+     * running are kept, next to the journal of the eval, or null to keep them
+     * only in memory
+     * @return the json body of each response, by document id. A request that
+     * failed in the batch has no response.
+     */
+    public Map<String, String> run(Map<String, byte[]> bodiesById, Path batchesInProgress) {
+        byte[] jsonl = toJsonl(bodiesById);
+        // a batch is known by its content: the same requests sent again after a restart find the batch that was created for them
+        String key = Utils.sha256(new String(jsonl, StandardCharsets.UTF_8));
+        String batchId = batchesInProgress == null ? null : readBatchInProgress(batchesInProgress, key);
+        JsonObject batch = null;
+        if (batchId != null) {
+            try {
+                batch = readObject(transport.send(get("batches/" + batchId)));
+                System.out.println("");
+                System.out.println("resuming the OpenAI batch " + batchId + " with " + bodiesById.size() + " requests");
+            } catch (CompletionException ex) {
+                System.out.println("the OpenAI batch " + batchId + " could not be resumed, a new batch will be created: " + ex.getCause().getMessage());
+            }
+        }
+        if (batch == null) {
+            String inputFileId = readObject(upload(jsonl)).getString("id");
+            String creation = "{\"input_file_id\":\"" + PromptTemplate.escape(inputFileId) + "\",\"endpoint\":\"" + ENDPOINT + "\",\"completion_window\":\"24h\"}";
+            batch = readObject(transport.send(post("batches", HttpRequest.BodyPublishers.ofString(creation), "application/json")));
+            batchId = batch.getString("id");
+            if (batchesInProgress != null) {
+                writeBatchInProgress(batchesInProgress, key, batchId);
+            }
+            System.out.println("");
+            System.out.println("OpenAI batch " + batchId + " created with " + bodiesById.size() + " requests");
+        }
+
+        Duration pause = FIRST_POLL;
+        while (!isOver(batch.getString("status"))) {
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ApiCallException("interrupted while waiting for the OpenAI batch " + batchId, -1, 1, ex);
+            }
+            pause = pause.multipliedBy(2).compareTo(MAX_POLL) > 0 ? MAX_POLL : pause.multipliedBy(2);
+            batch = readObject(transport.send(get("batches/" + batchId)));
+        }
+
+        String status = batch.getString("status");
+        if (status.equals("failed") || status.equals("cancelled")) {
+            if (batchesInProgress != null) {
+                removeBatchInProgress(batchesInProgress, key);
+            }
+            throw new ApiCallException("OpenAI batch " + batchId + " " + status + ": " + batch.get("errors"), -1, 1, null);
+        }
+        if (!status.equals("completed")) {
+            // an expired batch still returns the requests it got through
+            System.out.println("OpenAI batch " + batchId + " " + status + ": only part of the requests have a response");
+        }
+        Map<String, String> responses = new HashMap();
+        String outputFileId = batch.getString("output_file_id", null);
+        if (outputFileId != null) {
+            for (String line : transport.send(get("files/" + outputFileId + "/content")).split("\n")) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonObject result = readObject(line);
+                JsonValue response = result.get("response");
+                if (response != null && response.getValueType() == JsonValue.ValueType.OBJECT && response.asJsonObject().getInt("status_code", 0) == 200) {
+                    responses.put(result.getString("custom_id"), response.asJsonObject().getJsonObject("body").toString());
+                } else {
+                    System.out.println("no response in the OpenAI batch " + batchId + " for doc " + result.getString("custom_id") + ": " + line);
+                }
+            }
+        }
+        if (responses.size() < bodiesById.size()) {
+            System.out.println((bodiesById.size() - responses.size()) + " requests without a response in the OpenAI batch " + batchId);
+        }
+        if (batchesInProgress != null) {
+            removeBatchInProgress(batchesInProgress, key);
+        }
+        return responses;
+    }
+
+    private static String readBatchInProgress(Path batchesInProgress, String key) {
+        synchronized (BATCHES_IN_PROGRESS_LOCK) {
+            return loadBatchesInProgress(batchesInProgress).getProperty(key);
+        }
+    }
+
+    private static void writeBatchInProgress(Path batchesInProgress, String key, String batchId) {
+        synchronized (BATCHES_IN_PROGRESS_LOCK) {
+            Properties batches = loadBatchesInProgress(batchesInProgress);
+            batches.setProperty(key, batchId);
+            storeBatchesInProgress(batchesInProgress, batches);
+        }
+    }
+
+    private static void removeBatchInProgress(Path batchesInProgress, String key) {
+        synchronized (BATCHES_IN_PROGRESS_LOCK) {
+            Properties batches = loadBatchesInProgress(batchesInProgress);
+            batches.remove(key);
+            storeBatchesInProgress(batchesInProgress, batches);
+        }
+    }
+
+    private static Properties loadBatchesInProgress(Path batchesInProgress) {
+        Properties batches = new Properties();
+        if (Files.exists(batchesInProgress)) {
+            try (InputStream is = Files.newInputStream(batchesInProgress)) {
+                batches.load(is);
+            } catch (IOException ex) {
+                Logger.getLogger(OpenAIBatch.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        return batches;
+    }
+
+    private static void storeBatchesInProgress(Path batchesInProgress, Properties batches) {
+        try {
+            if (batches.isEmpty()) {
+                Files.deleteIfExists(batchesInProgress);
+                return;
+            }
+            try (OutputStream os = Files.newOutputStream(batchesInProgress)) {
+                batches.store(os, "OpenAI batches still running, by sha-256 of their requests");
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(OpenAIBatch.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private static boolean isOver(String status) {
+        return switch (status) {
+            case "completed", "failed", "expired", "cancelled" ->
+                true;
+            default ->
+                false;
+        };
+    }
+
+    private static byte[] toJsonl(Map<String, byte[]> bodiesById) {
+        ByteArrayOutputStream jsonl = new ByteArrayOutputStream();
+        for (Map.Entry<String, byte[]> entry : bodiesById.entrySet()) {
+            String before = "{\"custom_id\":\"" + PromptTemplate.escape(entry.getKey()) + "\",\"method\":\"POST\",\"url\":\"" + ENDPOINT + "\",\"body\":";
+            jsonl.writeBytes(before.getBytes(StandardCharsets.UTF_8));
+            jsonl.writeBytes(entry.getValue());
+            jsonl.writeBytes("}\n".getBytes(StandardCharsets.UTF_8));
+        }
+        return jsonl.toByteArray();
+    }
+
+    private String upload(byte[] jsonl) {
+        ByteArrayOutputStream multipart = new ByteArrayOutputStream();
+        String purpose = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"purpose\"\r\n\r\nbatch\r\n";
+        String file = "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"batch.jsonl\"\r\nContent-Type: application/jsonl\r\n\r\n";
+        multipart.writeBytes((purpose + file).getBytes(StandardCharsets.UTF_8));
+        multipart.writeBytes(jsonl);
+        multipart.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return transport.send(post("files", HttpRequest.BodyPublishers.ofByteArray(multipart.toByteArray()), "multipart/form-data; boundary=" + BOUNDARY));
+    }
+
+    private HttpRequest post(String path, HttpRequest.BodyPublisher body, String contentType) {
+        return HttpTransport.newRequest()
+                .POST(body)
+                .header("Authorization", "Bearer " + apiKey)
+                .header("Content-Type", contentType)
+                .uri(URI.create(API + path))
+                .build();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpTransport.newRequest()
+                .GET()
+                .header("Authorization", "Bearer " + apiKey)
+                .uri(URI.create(API + path))
+                .build();
+    }
+
+    private static JsonObject readObject(String json) {
+        try (JsonReader jsonReader = Json.createReader(new StringReader(json))) {
+            return jsonReader.readObject();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.models;
+
+import java.net.http.HttpRequest;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The json body of the requests of a model, with the text of the document as
+ * the only part that changes from one request to the next.
+ *
+ * The json before and after the text (the prompt, the other fields) is encoded
+ * to UTF-8 once. For each document, the text is escaped and encoded straight
+ * into a byte array of the exact size of the body: a first pass measures it, a
+ * second pass writes it. The array is not reused between requests, because a
+ * request is sent again as is when it is retried.
+ *
+ * @author LEVALLOIS
+ */
+public class PromptTemplate {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] before;
+    private final byte[] after;
+
+    /**
+     * @param jsonBeforeText the json of the body up to the text, ending inside
+     * an open string
+     * @param jsonAfterText the json of the body after the text, starting with
+     * the end of that string
+     */
+    public PromptTemplate(String jsonBeforeText, String jsonAfterText) {
+        this.before = jsonBeforeText.getBytes(StandardCharsets.UTF_8);
+        this.after = jsonAfterText.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public HttpRequest.BodyPublisher bodyPublisher(String text) {
+        return HttpRequest.BodyPublishers.ofByteArray(render(text));
+    }
+
+    public byte[] render(String text) {
+        byte[] body = new byte[before.length + escapedLength(text) + after.length];
+        System.arraycopy(before, 0, body, 0, before.length);
+        int end = writeEscaped(text, body, before.length);
+        System.arraycopy(after, 0, body, end, after.length);
+        return body;
+    }
+
+    /**
+     * The content of a json string (without the quotes) for this text, to
+     * write the json before and after the text of the documents.
+     */
+    public static String escape(String text) {
+        byte[] escaped = new byte[escapedLength(text)];
+        writeEscaped(text, escaped, 0);
+        return new String(escaped, StandardCharsets.UTF_8);
+    }
+
+    private static int escapedLength(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f') {
+                length += 2;
+            } else if (c < 0x20) {
+                length += 6;
+            } else if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // a lone surrogate is encoded as '?', like String.getBytes does
+                length += 1;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int writeEscaped(String text, byte[] out, int position) {
+        int p = position;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"' -> {
+                    out[p++] = '\\';
+                    out[p++] = '"';
+                }
+                case '\\' -> {
+                    out[p++] = '\\';
+                    out[p++] = '\\';
+                }
+                case '\n' -> {
+                    out[p++] = '\\';
+                    out[p++] = 'n';
+                }
+                case '\r' -> {
+                    out[p++] = '\\';
+                    out[p++] = 'r';
+                }
+                case '\t' -> {
+                    out[p++] = '\\';
+                    out[p++] = 't';
+                }
+                case '\b' -> {
+                    out[p++] = '\\';
+                    out[p++] = 'b';
+                }
+                case '\f' -> {
+                    out[p++] = '\\';
+                    out[p++] = 'f';
+                }
+                default -> {
+                    if (c < 0x20) {
+                        out[p++] = '\\';
+                        out[p++] = 'u';
+                        out[p++] = '0';
+                        out[p++] = '0';
+                        out[p++] = HEX[c >> 4];
+                        out[p++] = HEX[c & 0xF];
+                    } else if (c < 0x80) {
+                        out[p++] = (byte) c;
+                    } else if (c < 0x800) {
+                        out[p++] = (byte) (0xC0 | (c >> 6));
+                        out[p++] = (byte) (0x80 | (c & 0x3F));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                        out[p++] = (byte) (0xF0 | (codePoint >> 18));
+                        out[p++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        out[p++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        out[p++] = (byte) (0x80 | (codePoint & 0x3F));
+                    } else if (Character.isSurrogate(c)) {
+                        out[p++] = '?';
+                    } else {
+                        out[p++] = (byte) (0xE0 | (c >> 12));
+                        out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                        out[p++] = (byte) (0x80 | (c & 0x3F));
+                    }
+                }
+            }
+        }
+        return p;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.models;
+
+import jakarta.json.Json;
+import jakarta.json.stream.JsonParser;
+import jakarta.json.stream.JsonParser.Event;
+import java.io.StringReader;
+
+/**
+ * Reads the few fields needed from the response of a model by streaming
+ * through the json, without building a tree of objects, and stops as soon as
+ * they are found.
+ *
+ * @author LEVALLOIS
+ */
+public class ResponseReader {
+
+    public interface LabelScoreConsumer {
+
+        /**
+         * @return true to keep reading the next label, false to stop
+         */
+        public boolean accept(String label, float score);
+    }
+
+    /**
+     * The string value of the first key with this name, at this depth of
+     * nesting (1 for the keys of the root object, 2 for the keys of the objects
+     * in the root array...).
+     *
+     * @return null if there is no such key or its value is not a string
+     */
+    public static String readString(String json, String key, int depth) {
+        try (JsonParser parser = Json.createParser(new StringReader(json))) {
+            int level = 0;
+            while (parser.hasNext()) {
+                Event event = parser.next();
+                switch (event) {
+                    case START_OBJECT, START_ARRAY ->
+                        level++;
+                    case END_OBJECT, END_ARRAY ->
+                        level--;
+                    case KEY_NAME -> {
+                        if (level == depth && parser.getString().equals(key)) {
+                            return parser.next() == Event.VALUE_STRING ? parser.getString() : null;
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Passes the label and score of each {"label": ..., "score": ...} object of
+     * the json to the consumer, in order, until the consumer asks to stop. This
+     * is the shape of the responses of the Hugging Face text classifiers.
+     */
+    public static void readLabelScores(String json, LabelScoreConsumer consumer) {
+        try (JsonParser parser = Json.createParser(new StringReader(json))) {
+            String key = null;
+            String label = null;
+            float score = Float.NaN;
+            while (parser.hasNext()) {
+                Event event = parser.next();
+                switch (event) {
+                    case START_OBJECT -> {
+                        label = null;
+                        score = Float.NaN;
+                    }
+                    case KEY_NAME ->
+                        key = parser.getString();
+                    case VALUE_STRING -> {
+                        if ("label".equals(key)) {
+                            label = parser.getString();
+                        }
+                    }
+                    case VALUE_NUMBER -> {
+                        if ("score".equals(key)) {
+                            score = Float.parseFloat(parser.getString());
+                        }
+                    }
+                    case END_OBJECT -> {
+                        if (label != null && !Float.isNaN(score) && !consumer.accept(label, score)) {
+                            return;
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+    }
+}
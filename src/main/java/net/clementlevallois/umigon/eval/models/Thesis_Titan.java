@@ -6,28 +6,30 @@ package net.clementlevallois.umigon.eval.models;
 import io.mikael.urlbuilder.UrlBuilder;
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
 import jakarta.json.JsonReader;
 import jakarta.json.JsonValue;
-import jakarta.json.JsonValue.ValueType;
 import jakarta.json.JsonWriter;
-import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.Iterator;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.List;
 import net.clementlevallois.umigon.eval.controller.Controller;
 import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
 import net.clementlevallois.umigon.eval.datamodel.Factuality;
 import net.clementlevallois.umigon.eval.datamodel.Sentiment;
 import net.clementlevallois.umigon.eval.datamodel.Task;
+import net.clementlevallois.umigon.eval.transport.HedgingPolicy;
+import net.clementlevallois.umigon.eval.transport.HttpTransport;
+import net.clementlevallois.umigon.eval.transport.InputBatcher;
+import net.clementlevallois.umigon.eval.transport.ModelTransport;
+import net.clementlevallois.umigon.eval.transport.Provider;
+import net.clementlevallois.umigon.eval.transport.RetryPolicy;
 
 /**
  *
@@ -35,15 +37,16 @@ import net.clementlevallois.umigon.eval.datamodel.Task;
  */
 public class Thesis_Titan implements ModelInterface {
 
-    private final HttpClient httpClient;
+    private final InputBatcher batcher;
 
     private final Task task = Task.FACTUALITY;
     
     private final String API_KEY;
 
     public Thesis_Titan() {
-        this.httpClient = HttpClient.newHttpClient();
         API_KEY = Controller.HUGGINGFACE_API_KEY;
+        ModelTransport transport = new ModelTransport("Thesis Titan", Provider.HUGGINGFACE, RetryPolicy.DEFAULT, new HedgingPolicy(Controller.HUGGINGFACE_HEDGING_MAX_EXTRA_LOAD));
+        this.batcher = new InputBatcher(transport, this::buildRequest, Controller.HUGGINGFACE_BATCH_SIZE, Duration.ofMillis(Controller.HUGGINGFACE_BATCH_MAX_WAIT_MILLIS));
     }
 
     @Override
@@ -67,8 +70,15 @@ public class Thesis_Titan implements ModelInterface {
     }
     
     @Override
-    public Boolean areConcurrentAPICallsPossible() {
-        return Boolean.TRUE;
+    public String getPromptTemplate() {
+        // a classifier: the text is sent as is, there is no prompt
+        return "{text}";
+    }
+
+    @Override
+    public int getMaxConcurrentAPICalls() {
+        // documents in flight, not requests: they are sent in batches, about 4 batches at a time
+        return 4 * Controller.HUGGINGFACE_BATCH_SIZE;
     }    
 
     @Override
@@ -87,6 +97,10 @@ public class Thesis_Titan implements ModelInterface {
 
     @Override
     public String sendApiCall(AnnotatedDocument annotatedDocument) {
+        return batcher.submit(annotatedDocument.getText()).join();
+    }
+
+    private HttpRequest buildRequest(List<String> texts) {
         URI uri = UrlBuilder
                 .empty()
                 .withScheme("https")
@@ -94,8 +108,10 @@ public class Thesis_Titan implements ModelInterface {
                 //                .withPath("models/GroNLP/mdebertav3-subjectivity-english")
                 .toUri();
 
+        JsonArrayBuilder inputs = Json.createArrayBuilder();
+        texts.forEach(inputs::add);
         JsonObjectBuilder overallObject = Json.createObjectBuilder();
-        overallObject.add("inputs", annotatedDocument.getText());
+        overallObject.add("inputs", inputs);
         overallObject.add("use_cache", false);
         StringWriter sw = new StringWriter(128);
         try (JsonWriter jw = Json.createWriter(sw)) {
@@ -104,90 +120,39 @@ public class Thesis_Titan implements ModelInterface {
         String jsonString = sw.toString();
 
         HttpRequest.BodyPublisher bodyPublisher = HttpRequest.BodyPublishers.ofString(jsonString);
-        HttpResponse<String> response = null;
-        int waitloop = 1;
-        HttpRequest request;
-        int sleepBetweenRequests = 20;
-        while (response == null || response.statusCode() != 200) {
-            try {
-                request = HttpRequest.newBuilder()
-                        .POST(bodyPublisher)
-                        .header("Authorization", "Bearer "+ API_KEY)
-                        .header("Content-Type", "application/json")
-                        .uri(uri)
-                        .build();
-                response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                if (response.statusCode() == 503) {
-                    // model still loading, let's wait
-                    Thread.sleep(Duration.ofMillis(1000 + sleepBetweenRequests));
-                    System.out.println("");
-                    System.out.println("waiting for the model to load... (" + waitloop++ + ")");
-                    sleepBetweenRequests = sleepBetweenRequests + 20;
-                } else if (response.statusCode() != 200) {
-                    System.out.println("");
-                    System.out.println("ERROR: ");
-                    System.out.println(response.body());
-                    System.out.println("-----------");
-                    Thread.sleep(Duration.ofSeconds(1));
-                } else {
-                    // adding a pause between calls for the Hugging Face API
-                    Thread.sleep(Duration.ofMillis(sleepBetweenRequests).toMillis());
-                    System.out.print("*");
-                }
-            } catch (IOException | InterruptedException ex) {
-                System.out.println("");
-                System.out.println("internet connexion probably broken for Thesis Titan: check it");
-                try {
-                    Thread.sleep(Duration.ofSeconds(3));
-                } catch (InterruptedException ex1) {
-                    Logger.getLogger(Thesis_Titan.class.getName()).log(Level.SEVERE, null, ex1);
-                }
-            }
-        }
-        return response.body();
+        return HttpTransport.newRequest()
+                .POST(bodyPublisher)
+                .header("Authorization", "Bearer " + API_KEY)
+                .header("Content-Type", "application/json")
+                .uri(uri)
+                .build();
     }
 
     private Factuality getLabelOnObjectivityFromJsonArray(String response) {
-        JsonReader jsonReader = Json.createReader(new StringReader(response));
-        JsonArray array = jsonReader.readArray();
-        JsonObject firstLabelResponse;
-        JsonObject secondLabelResponse;
-        float scoreLabel0 = -1;
-        float scoreLabel1 = -1;
-        if (array.get(0).getValueType().equals(ValueType.ARRAY)) {
-            JsonArray responseArray = array.getJsonArray(0);
-            firstLabelResponse = responseArray.getJsonObject(0);
-            secondLabelResponse = responseArray.getJsonObject(1);
-            if (secondLabelResponse.getString("label").equals("LABEL_0")) {
-                scoreLabel0 = secondLabelResponse.getJsonNumber("score").bigDecimalValue().floatValue();
+        // either the scores of both labels, or only the label with the best score
+        float[] scores = {-1, -1};
+        ResponseReader.readLabelScores(response, (label, score) -> {
+            if (label.equals("LABEL_0")) {
+                scores[0] = score;
             } else {
-                scoreLabel1 = secondLabelResponse.getJsonNumber("score").bigDecimalValue().floatValue();
+                scores[1] = score;
             }
-            if (firstLabelResponse.getString("label").equals("LABEL_0")) {
-                scoreLabel0 = firstLabelResponse.getJsonNumber("score").bigDecimalValue().floatValue();
-            } else {
-                scoreLabel1 = firstLabelResponse.getJsonNumber("score").bigDecimalValue().floatValue();
-            }
-            if (scoreLabel0 >= 0 && scoreLabel1 >= 0) {
-                if (scoreLabel0 > scoreLabel1) {
-                    return Factuality.OBJ;
-                } else {
-                    return Factuality.SUBJ;
-                }
-            } else {
-                return Factuality.NOT_SET;
-            }
-        } else {
-            JsonObject responseObject = array.getJsonObject(0);
-            String label = responseObject.getString("label");
-            float score = responseObject.getJsonNumber("score").bigDecimalValue().floatValue();
-            if (label.equals("LABEL_0") && score > 0.5) {
+            return scores[0] < 0 || scores[1] < 0;
+        });
+        float scoreLabel0 = scores[0];
+        float scoreLabel1 = scores[1];
+        if (scoreLabel0 >= 0 && scoreLabel1 >= 0) {
+            if (scoreLabel0 > scoreLabel1) {
                 return Factuality.OBJ;
-            } else if (label.equals("LABEL_1") && score > 0.5) {
-                return Factuality.SUBJ;
             } else {
-                return Factuality.NOT_SET;
+                return Factuality.SUBJ;
             }
+        } else if (scoreLabel0 > 0.5) {
+            return Factuality.OBJ;
+        } else if (scoreLabel1 > 0.5) {
+            return Factuality.SUBJ;
+        } else {
+            return Factuality.NOT_SET;
         }
     }
 
@@ -6,26 +6,30 @@ package net.clementlevallois.umigon.eval.models;
 import io.mikael.urlbuilder.UrlBuilder;
 import jakarta.json.Json;
 import jakarta.json.JsonArray;
+import jakarta.json.JsonArrayBuilder;
 import jakarta.json.JsonObject;
 import jakarta.json.JsonObjectBuilder;
 import jakarta.json.JsonReader;
 import jakarta.json.JsonValue;
 import jakarta.json.JsonValue.ValueType;
-import java.io.IOException;
 import java.io.StringReader;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.Iterator;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.List;
 import net.clementlevallois.umigon.eval.controller.Controller;
 import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
 import net.clementlevallois.umigon.eval.datamodel.Factuality;
 import net.clementlevallois.umigon.eval.datamodel.Sentiment;
 import net.clementlevallois.umigon.eval.datamodel.Task;
+import net.clementlevallois.umigon.eval.transport.HedgingPolicy;
+import net.clementlevallois.umigon.eval.transport.HttpTransport;
+import net.clementlevallois.umigon.eval.transport.InputBatcher;
+import net.clementlevallois.umigon.eval.transport.ModelTransport;
+import net.clementlevallois.umigon.eval.transport.Provider;
+import net.clementlevallois.umigon.eval.transport.RetryPolicy;
 
 /**
  *
@@ -33,15 +37,16 @@ import net.clementlevallois.umigon.eval.datamodel.Task;
  */
 public class TimeLMs implements ModelInterface {
 
-    private final HttpClient httpClient;
+    private final InputBatcher batcher;
 
     private final Task task = Task.FACTUALITY_AND_SENTIMENT;
 
     private final String API_KEY;
 
     public TimeLMs() {
-        this.httpClient = HttpClient.newHttpClient();
         API_KEY = Controller.HUGGINGFACE_API_KEY;
+        ModelTransport transport = new ModelTransport("Twitter Roberta", Provider.HUGGINGFACE, RetryPolicy.DEFAULT, new HedgingPolicy(Controller.HUGGINGFACE_HEDGING_MAX_EXTRA_LOAD));
+        this.batcher = new InputBatcher(transport, this::buildRequest, Controller.HUGGINGFACE_BATCH_SIZE, Duration.ofMillis(Controller.HUGGINGFACE_BATCH_MAX_WAIT_MILLIS));
     }
 
     @Override
@@ -65,12 +70,23 @@ public class TimeLMs implements ModelInterface {
     }
 
     @Override
-    public Boolean areConcurrentAPICallsPossible() {
-        return Boolean.TRUE;
+    public String getPromptTemplate() {
+        // a classifier: the text is sent as is, there is no prompt
+        return "{text}";
+    }
+
+    @Override
+    public int getMaxConcurrentAPICalls() {
+        // documents in flight, not requests: they are sent in batches, about 4 batches at a time
+        return 4 * Controller.HUGGINGFACE_BATCH_SIZE;
     }
 
     @Override
     public String sendApiCall(AnnotatedDocument annotatedDocument) {
+        return batcher.submit(truncate(annotatedDocument.getText())).join();
+    }
+
+    private HttpRequest buildRequest(List<String> texts) {
         URI uri = UrlBuilder
                 .empty()
                 .withScheme("https")
@@ -78,61 +94,27 @@ public class TimeLMs implements ModelInterface {
                 //                .withPath("models/cardiffnlp/twitter-roberta-base-sentiment-latest")
                 .toUri();
 
-        // this model accepts inputs of max length 511
-        // see https://huggingface.co/cardiffnlp/twitter-roberta-base-sentiment-latest/discussions/2
-        String input = annotatedDocument.getText();
-        int maxInputSize = Math.min(input.length(), 510);
-
-        input = input.substring(0, maxInputSize);
-
+        JsonArrayBuilder inputs = Json.createArrayBuilder();
+        texts.forEach(inputs::add);
         JsonObjectBuilder overallObject = Json.createObjectBuilder();
-        overallObject.add("inputs", input);
+        overallObject.add("inputs", inputs);
         overallObject.add("use_cache", false);
         String jsonString = overallObject.build().toString();
 
         HttpRequest.BodyPublisher bodyPublisher = HttpRequest.BodyPublishers.ofString(jsonString);
-        HttpResponse<String> response = null;
-        int waitloop = 1;
-        HttpRequest request;
-        int sleepBetweenRequests = 1;
-        while (response == null || response.statusCode() != 200) {
-            try {
-                request = HttpRequest.newBuilder()
-                        .POST(bodyPublisher)
-                        .header("Authorization", "Bearer " + API_KEY)
-                        .header("Content-Type", "application/json")
-                        .uri(uri)
-                        .build();
-                response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                if (response.statusCode() == 503) {
-                    // model still loading, let's wait
-                    Thread.sleep(Duration.ofMillis(1000 + sleepBetweenRequests));
-                    System.out.println("");
-                    System.out.println("waiting for the model to load... (" + waitloop++ + ")");
-                    sleepBetweenRequests = sleepBetweenRequests + 20;
-                } else if (response.statusCode() != 200) {
-                    System.out.println("");
-                    System.out.println("ERROR: ");
-                    System.out.println(response.body());
-                    System.out.println("text was: " + annotatedDocument.getText());
-                    System.out.println("-----------");
-                    Thread.sleep(Duration.ofSeconds(1));
-                } else {
-                    // adding a pause between calls for the Hugging Face API
-                    Thread.sleep(Duration.ofMillis(sleepBetweenRequests).toMillis());
-                    System.out.print("*");
-                }
-            } catch (IOException | InterruptedException ex) {
-                System.out.println("");
-                System.out.println("internet connexion probably broken on Twitter Roberta: check it");
-                try {
-                    Thread.sleep(Duration.ofSeconds(3));
-                } catch (InterruptedException ex1) {
-                    Logger.getLogger(TimeLMs.class.getName()).log(Level.SEVERE, null, ex1);
-                }
-            }
-        }
-        return response.body();
+        return HttpTransport.newRequest()
+                .POST(bodyPublisher)
+                .header("Authorization", "Bearer " + API_KEY)
+                .header("Content-Type", "application/json")
+                .uri(uri)
+                .build();
+    }
+
+    private static String truncate(String input) {
+        // this model accepts inputs of max length 511
+        // see https://huggingface.co/cardiffnlp/twitter-roberta-base-sentiment-latest/discussions/2
+        int maxInputSize = Math.min(input.length(), 510);
+        return input.substring(0, maxInputSize);
     }
 
     @Override
@@ -224,12 +206,37 @@ public class TimeLMs implements ModelInterface {
         }
     }
 
+    @Override
+    public Annotation extractAnnotation(String response) {
+        if (!response.startsWith("[") || response.startsWith("[[")) {
+            // scores for all the labels: not what this endpoint returns, but the extractors know how to read it
+            return ModelInterface.super.extractAnnotation(response);
+        }
+        // the label with the best score, which gives the sentiment and the factuality
+        String[] label = new String[1];
+        float[] score = new float[1];
+        ResponseReader.readLabelScores(response, (l, s) -> {
+            label[0] = l;
+            score[0] = s;
+            return false;
+        });
+        Factuality factuality = "neutral".equals(label[0]) && score[0] > 0.5 ? Factuality.OBJ : Factuality.SUBJ;
+        return Annotation.empty().withSentiment(sentimentOf(label[0])).withFactuality(factuality).withConfidence(score[0]);
+    }
+
     public Sentiment getLabelOnSentimentFromJsonArray(String response) {
-        JsonReader jsonReader = Json.createReader(new StringReader(response));
-        JsonArray array = jsonReader.readArray();
-        JsonObject responseObject = array.getJsonObject(0);
-        String label = responseObject.getString("label");
-        if (label.equalsIgnoreCase("negative")) {
+        String[] label = new String[1];
+        ResponseReader.readLabelScores(response, (l, score) -> {
+            label[0] = l;
+            return false;
+        });
+        return sentimentOf(label[0]);
+    }
+
+    private static Sentiment sentimentOf(String label) {
+        if (label == null) {
+            return Sentiment.NOT_SET;
+        } else if (label.equalsIgnoreCase("negative")) {
             return Sentiment.NEGATIVE;
         } else if (label.equalsIgnoreCase("positive")) {
             return Sentiment.POSITIVE;
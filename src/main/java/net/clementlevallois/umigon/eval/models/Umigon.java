@@ -4,24 +4,18 @@
 package net.clementlevallois.umigon.eval.models;
 
 import io.mikael.urlbuilder.UrlBuilder;
-import jakarta.json.Json;
-import jakarta.json.JsonObject;
-import jakarta.json.JsonReader;
-import java.io.IOException;
-import java.io.StringReader;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import net.clementlevallois.umigon.eval.controller.Controller;
 import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
 import net.clementlevallois.umigon.eval.datamodel.Factuality;
 import net.clementlevallois.umigon.eval.datamodel.Sentiment;
 import net.clementlevallois.umigon.eval.datamodel.Task;
+import net.clementlevallois.umigon.eval.transport.HttpTransport;
+import net.clementlevallois.umigon.eval.transport.ModelTransport;
+import net.clementlevallois.umigon.eval.transport.Provider;
 
 /**
  *
@@ -29,7 +23,7 @@ import net.clementlevallois.umigon.eval.datamodel.Task;
  */
 public class Umigon implements ModelInterface {
 
-    private final HttpClient httpClient;
+    private final ModelTransport transport;
 
     private final Task task = Task.FACTUALITY_AND_SENTIMENT;
 
@@ -38,8 +32,8 @@ public class Umigon implements ModelInterface {
     private final String API_KEY;
     
     public Umigon() {
-        this.httpClient = HttpClient.newHttpClient();
         this.API_KEY = Controller.UMIGON_API_KEY;
+        this.transport = new ModelTransport("Umigon API", Provider.UMIGON);
     }
 
     @Override
@@ -64,8 +58,15 @@ public class Umigon implements ModelInterface {
 
     
     @Override
-    public Boolean areConcurrentAPICallsPossible() {
-        return Boolean.TRUE;
+    public String getPromptTemplate() {
+        // a classifier: the text is sent as is, there is no prompt
+        return "{text}";
+    }
+
+    @Override
+    public int getMaxConcurrentAPICalls() {
+        // the local Umigon server is on the same machine: it can take many calls at once
+        return 64;
     }    
 
     @Override
@@ -80,6 +81,10 @@ public class Umigon implements ModelInterface {
 
     @Override
     public String sendApiCall(AnnotatedDocument annotatedDocument) {
+        return transport.send(buildRequest(annotatedDocument));
+    }
+
+    private HttpRequest buildRequest(AnnotatedDocument annotatedDocument) {
         URI uri = null;
         UrlBuilder urlBuilder = UrlBuilder
                 .empty()
@@ -102,53 +107,44 @@ public class Umigon implements ModelInterface {
         }
         uri = urlBuilder.toUri();
 
-        HttpResponse<String> response = null;
-        int waitloop = 1;
-        while (response == null || response.statusCode() == 503) {
-            try {
-                HttpRequest request = HttpRequest.newBuilder()
-                        .uri(uri)
-                        .POST(BodyPublishers.ofString(annotatedDocument.getText()))
-                        .build();
-                response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-                if (response.statusCode() == 503) {
-                    // model still loading, let's wait
-                    Thread.sleep(Duration.ofSeconds(1));
-                    System.out.println("waiting for the model to load... (" + waitloop++ + ")");
-                } else {
-                    System.out.print("*");
-                    if (API_KEY == null){
-                        // without an API key for Umigon, calls get throttled to 50 max per second. This pause gives ample time.
-                        Thread.sleep(Duration.ofMillis(30));
-                    }
-
-                }
-            } catch (IOException | InterruptedException ex) {
-                System.out.println("internet connexion probably broken for Umigon API: check it");
-                try {
-                    Thread.sleep(Duration.ofSeconds(3));
-                } catch (InterruptedException ex1) {
-                    Logger.getLogger(Thesis_Titan.class.getName()).log(Level.SEVERE, null, ex1);
-                }
-            }
-        }
-        return response.body();
+        return HttpTransport.newRequest()
+                .uri(uri)
+                .POST(BodyPublishers.ofString(annotatedDocument.getText()))
+                .build();
+    }
+
+    @Override
+    public Annotation extractAnnotation(String response) {
+        String label = readSentiment(response);
+        return Annotation.empty().withSentiment(sentimentOf(label)).withFactuality(factualityOf(label));
     }
 
     public Factuality getLabelOnFactualityFromJson(String response) {
-        JsonReader jsonReader = Json.createReader(new StringReader(response));
-        JsonObject jo = jsonReader.readObject();
-        if (jo.getString("sentiment").contains("neutral")) {
+        return factualityOf(readSentiment(response));
+    }
+
+    public Sentiment getLabelOnSentimentFromJson(String response) {
+        return sentimentOf(readSentiment(response));
+    }
+
+    private static String readSentiment(String response) {
+        return ResponseReader.readString(response, "sentiment", 1);
+    }
+
+    static Factuality factualityOf(String label) {
+        if (label == null) {
+            return Factuality.NOT_SET;
+        } else if (label.contains("neutral")) {
             return Factuality.OBJ;
         } else {
             return Factuality.SUBJ;
         }
     }
 
-    public Sentiment getLabelOnSentimentFromJson(String response) {
-        JsonReader jsonReader = Json.createReader(new StringReader(response));
-        JsonObject jo = jsonReader.readObject();
-        String label = jo.getString("sentiment");
+    static Sentiment sentimentOf(String label) {
+        if (label == null) {
+            return Sentiment.NOT_SET;
+        }
         switch (label) {
             case "neutral feeling" -> {
                 return Sentiment.NEUTRAL;
@@ -0,0 +1,47 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+
+/**
+ * The Umigon classifier, called in the same JVM as the benchmark.
+ *
+ * The classifier is not a dependency of the benchmark: an implementation is
+ * found on the classpath with a {@link ServiceLoader}, declared in a
+ * META-INF/services/net.clementlevallois.umigon.eval.models.UmigonEngine
+ * file of the jar that wraps the classifier. Without one, the benchmark calls
+ * the Umigon API.
+ *
+ * @author LEVALLOIS
+ */
+public interface UmigonEngine {
+
+    /**
+     * The sentiment of a text. Must be safe to call from several threads at
+     * once.
+     */
+    public Sentiment classify(String text);
+
+    /**
+     * The sentiments of several texts, in the order of the texts. An engine
+     * that shares work between texts (loading its lexicons, warming its
+     * caches...) overrides this.
+     */
+    public default List<Sentiment> classify(List<String> texts) {
+        List<Sentiment> sentiments = new ArrayList();
+        for (String text : texts) {
+            sentiments.add(classify(text));
+        }
+        return sentiments;
+    }
+
+    public static Optional<UmigonEngine> find() {
+        return ServiceLoader.load(UmigonEngine.class).findFirst();
+    }
+}
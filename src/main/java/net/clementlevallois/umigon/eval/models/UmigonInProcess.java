@@ -0,0 +1,139 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.models;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
+import net.clementlevallois.umigon.eval.datamodel.Factuality;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import net.clementlevallois.umigon.eval.datamodel.Task;
+
+/**
+ * Umigon running in the JVM of the benchmark: the text of a document goes
+ * straight to the classifier, with no http call and no json in between.
+ *
+ * It has the name and the links of the {@link Umigon} API, since it is the same
+ * classifier: the results and the leaderboard do not tell them apart.
+ *
+ * @author LEVALLOIS
+ */
+public class UmigonInProcess implements ModelInterface {
+
+    private final UmigonEngine engine;
+
+    private final Task task = Task.FACTUALITY_AND_SENTIMENT;
+
+    public UmigonInProcess(UmigonEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public String getName() {
+        return "umigon";
+    }
+
+    @Override
+    public Task getTask() {
+        return task;
+    }
+
+    @Override
+    public String getPaperWebLink() {
+        return "https://aclanthology.org/S13-2068/no";
+    }
+
+    @Override
+    public String getAPIWebLink() {
+        return "https://nocodefunctions.com/umigon/sentiment_analysis_tool.html";
+    }
+
+    @Override
+    public String getPromptTemplate() {
+        return "{text}";
+    }
+
+    @Override
+    public int getMaxConcurrentAPICalls() {
+        // the classifier only uses the CPU: more calls at once than cores would just wait
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public boolean isInProcess() {
+        return true;
+    }
+
+    @Override
+    public int getBatchSize() {
+        // large enough for the classifier to run without pause, small enough to spread the documents on all the cores
+        return 256;
+    }
+
+    @Override
+    public Annotation annotate(AnnotatedDocument annotatedDocument) {
+        return annotationOf(engine.classify(annotatedDocument.getText()));
+    }
+
+    @Override
+    public List<Annotation> annotateBatch(List<AnnotatedDocument> annotatedDocuments) {
+        List<String> texts = new ArrayList();
+        annotatedDocuments.forEach(doc -> texts.add(doc.getText()));
+        List<Annotation> annotations = new ArrayList();
+        engine.classify(texts).forEach(sentiment -> annotations.add(annotationOf(sentiment)));
+        return annotations;
+    }
+
+    /**
+     * The label in the json of the Umigon API, for the callers that need a
+     * response (the response cache...).
+     */
+    @Override
+    public String sendApiCall(AnnotatedDocument annotatedDocument) {
+        Sentiment sentiment = annotate(annotatedDocument).getSentiment();
+        JsonObjectBuilder response = Json.createObjectBuilder();
+        // no label rather than an empty one, which would be read as subjective
+        if (sentiment != Sentiment.NOT_SET) {
+            response.add("sentiment", sentiment.name().toLowerCase() + " feeling");
+        }
+        return response.build().toString();
+    }
+
+    @Override
+    public Annotation extractAnnotation(String response) {
+        String label = ResponseReader.readString(response, "sentiment", 1);
+        return Annotation.empty().withSentiment(Umigon.sentimentOf(label)).withFactuality(Umigon.factualityOf(label));
+    }
+
+    @Override
+    public Sentiment extractSentimentLabelFromAPiResponse(String response) {
+        return extractAnnotation(response).getSentiment();
+    }
+
+    @Override
+    public Factuality extractFactualityLabelFromAPiResponse(String response) {
+        return extractAnnotation(response).getFactuality();
+    }
+
+    private static Annotation annotationOf(Sentiment sentiment) {
+        if (sentiment == null) {
+            sentiment = Sentiment.NOT_SET;
+        }
+        return Annotation.empty().withSentiment(sentiment).withFactuality(factualityOf(sentiment));
+    }
+
+    private static Factuality factualityOf(Sentiment sentiment) {
+        return switch (sentiment) {
+            case NOT_SET ->
+                Factuality.NOT_SET;
+            case NEUTRAL ->
+                Factuality.OBJ;
+            default ->
+                Factuality.SUBJ;
+        };
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An AIMD limit on the number of calls in flight to one endpoint.
+ *
+ * The limit grows additively (about +1 per round of calls) as long as the p95
+ * latency stays close to the best p95 observed on the endpoint, and it is
+ * halved when the endpoint answers with 429, 503 or another 5xx. There is one
+ * limiter per endpoint for the whole run, so what is learnt on a document is
+ * kept for the next documents and datasets.
+ *
+ * @author LEVALLOIS
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final Map<String, AdaptiveConcurrencyLimiter> LIMITERS = new ConcurrentHashMap();
+
+    private static final int INITIAL_LIMIT = 4;
+    private static final int MAX_LIMIT = 256;
+    private static final int WINDOW = 50;
+    private static final double LATENCY_TOLERANCE = 1.5;
+    private static final double BACKOFF_RATIO = 0.5;
+    private static final long MIN_NANOS_BETWEEN_BACKOFFS = 1_000_000_000L;
+
+    private final Deque<CompletableFuture<Void>> waiting = new ArrayDeque();
+    private final long[] latencies = new long[WINDOW];
+    private double limit = INITIAL_LIMIT;
+    private int inFlight;
+    private int samples;
+    private long currentP95 = -1;
+    private long baselineP95 = Long.MAX_VALUE;
+    private long lastBackoff;
+
+    public static AdaptiveConcurrencyLimiter forEndpoint(URI uri) {
+        return LIMITERS.computeIfAbsent(uri.getScheme() + "://" + uri.getAuthority(), endpoint -> new AdaptiveConcurrencyLimiter());
+    }
+
+    public CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> slot = new CompletableFuture();
+            waiting.add(slot);
+            return slot;
+        }
+    }
+
+    public void onSuccess(long latencyNanos) {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            latencies[samples++ % WINDOW] = latencyNanos;
+            if (samples % WINDOW == 0) {
+                long[] sorted = latencies.clone();
+                Arrays.sort(sorted);
+                currentP95 = sorted[(int) (WINDOW * 0.95) - 1];
+                baselineP95 = Math.min(baselineP95, currentP95);
+            }
+            boolean latencyIsFlat = currentP95 < 0 || currentP95 <= baselineP95 * LATENCY_TOLERANCE;
+            if (latencyIsFlat) {
+                limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+            }
+            granted = release();
+        }
+        granted.forEach(slot -> slot.complete(null));
+    }
+
+    public void onOverload() {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            // the calls already in flight will be rejected too: one backoff per round of calls is enough
+            long now = System.nanoTime();
+            long minNanosBetweenBackoffs = Math.max(MIN_NANOS_BETWEEN_BACKOFFS, currentP95);
+            if (lastBackoff == 0 || now - lastBackoff > minNanosBetweenBackoffs) {
+                limit = Math.max(1, limit * BACKOFF_RATIO);
+                lastBackoff = now;
+            }
+            granted = release();
+        }
+        granted.forEach(slot -> slot.complete(null));
+    }
+
+    public void onIgnored() {
+        List<CompletableFuture<Void>> granted;
+        synchronized (this) {
+            granted = release();
+        }
+        granted.forEach(slot -> slot.complete(null));
+    }
+
+    private List<CompletableFuture<Void>> release() {
+        inFlight--;
+        List<CompletableFuture<Void>> granted = new ArrayList();
+        while (inFlight < (int) limit && !waiting.isEmpty()) {
+            inFlight++;
+            granted.add(waiting.poll());
+        }
+        return granted;
+    }
+
+    /**
+     * @return the p95 latency of the last calls that succeeded, or -1 before
+     * enough calls
+     */
+    public synchronized long getP95Nanos() {
+        return currentP95;
+    }
+
+    public static boolean isOverload(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+}
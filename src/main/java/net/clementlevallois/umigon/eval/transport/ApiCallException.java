@@ -0,0 +1,33 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+/**
+ * An API call that was given up: the error is not worth retrying, or the
+ * retries are exhausted.
+ *
+ * @author LEVALLOIS
+ */
+public class ApiCallException extends RuntimeException {
+
+    private final int statusCode;
+    private final int attempts;
+
+    public ApiCallException(String message, int statusCode, int attempts, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.attempts = attempts;
+    }
+
+    /**
+     * @return the status of the last response, or -1 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import java.time.Duration;
+
+/**
+ * Stops sending calls to the endpoint of a model that looks down.
+ *
+ * After a number of consecutive failures (no connexion, or a 5xx) the circuit
+ * opens: calls fail fast, without a request, for the time of the cooldown.
+ * Then a single call goes through as a probe. If it succeeds the circuit
+ * closes, otherwise it opens for another cooldown.
+ *
+ * @author LEVALLOIS
+ */
+public class CircuitBreaker {
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String label;
+    private final int failureThreshold;
+    private final long cooldownNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    public CircuitBreaker(String label, int failureThreshold, Duration cooldown) {
+        this.label = label;
+        this.failureThreshold = failureThreshold;
+        this.cooldownNanos = cooldown.toNanos();
+    }
+
+    /**
+     * @return true if the call can be sent, false if it must fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED -> {
+                return true;
+            }
+            case OPEN -> {
+                if (System.nanoTime() - openedAt < cooldownNanos) {
+                    return false;
+                }
+                // this call is the probe, the others keep failing fast until it is back
+                state = State.HALF_OPEN;
+                return true;
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            System.out.println("");
+            System.out.println(label + " is back: circuit closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            System.out.println("");
+            System.out.println(label + " looks down after " + consecutiveFailures + " failures in a row: circuit open, calls fail fast for " + Duration.ofNanos(cooldownNanos).toSeconds() + " s");
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+    }
+
+    public static boolean isFailure(int statusCode) {
+        return statusCode >= 500;
+    }
+}
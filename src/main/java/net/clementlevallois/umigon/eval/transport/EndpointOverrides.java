@@ -0,0 +1,48 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends the calls meant for an endpoint to another base URI, for instance to
+ * the mock server that stands in for the real endpoints in a load test. The
+ * path and query of the calls are kept, after the path of the new base.
+ *
+ * @author LEVALLOIS
+ */
+public class EndpointOverrides {
+
+    private static final Map<String, URI> OVERRIDES = new ConcurrentHashMap();
+
+    /**
+     * @param authority the host of the endpoint, with its port if it has one
+     * (for instance "api.openai.com" or "localhost:7002")
+     */
+    public static void redirect(String authority, URI base) {
+        OVERRIDES.put(authority, base);
+    }
+
+    public static void clear() {
+        OVERRIDES.clear();
+    }
+
+    public static HttpRequest apply(HttpRequest request) {
+        if (OVERRIDES.isEmpty()) {
+            return request;
+        }
+        URI uri = request.uri();
+        URI base = OVERRIDES.get(uri.getRawAuthority());
+        if (base == null) {
+            return request;
+        }
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+        URI redirected = URI.create(base.toString().replaceAll("/$", "") + path + query);
+        return HttpRequest.newBuilder(request, (name, value) -> true).uri(redirected).build();
+    }
+}
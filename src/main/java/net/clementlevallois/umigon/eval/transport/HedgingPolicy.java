@@ -0,0 +1,62 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+/**
+ * When to send a duplicate of an API call that is slower than usual.
+ *
+ * A call that has not returned after the p95 latency observed on its endpoint
+ * is sent a second time, and the first of the two responses is kept. This cuts
+ * the long tail of an evaluation, where a few stuck documents hold it open
+ * after all the others are done. The duplicates are capped to a share of the
+ * calls of the model (5% is a good start): when an endpoint gets slow for
+ * every call, hedging stops instead of doubling its load.
+ *
+ * Only for endpoints where sending a call twice is harmless and cheap: the
+ * classifiers and text generation endpoints of Hugging Face, not OpenAI.
+ *
+ * @author LEVALLOIS
+ */
+public class HedgingPolicy {
+
+    private final double maxExtraLoad;
+    private long requests;
+    private long hedges;
+
+    /**
+     * @param maxExtraLoad the number of duplicates that can be sent, as a share
+     * of the calls (0.05 for at most one duplicate every 20 calls). 0 turns
+     * hedging off.
+     */
+    public HedgingPolicy(double maxExtraLoad) {
+        this.maxExtraLoad = maxExtraLoad;
+    }
+
+    public static HedgingPolicy none() {
+        return new HedgingPolicy(0);
+    }
+
+    public boolean isEnabled() {
+        return maxExtraLoad > 0;
+    }
+
+    public synchronized void onRequest() {
+        requests++;
+    }
+
+    /**
+     * @return true if a duplicate can be sent, in which case it is counted
+     */
+    public synchronized boolean tryHedge() {
+        if (hedges + 1 > maxExtraLoad * requests) {
+            return false;
+        }
+        hedges++;
+        return true;
+    }
+
+    public synchronized long getHedges() {
+        return hedges;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one HttpClient of the benchmark, shared by all the models.
+ *
+ * Sharing it means one pool of kept-alive connections per endpoint, and HTTP/2
+ * streams multiplexed on a single connection when the endpoint supports it
+ * (the client falls back to HTTP/1.1 otherwise). The client completes its
+ * futures on a small fixed pool of daemon threads instead of an unbounded
+ * cached pool.
+ *
+ * Every request gets a timeout: a call that hangs fails and is retried like
+ * any broken connexion.
+ *
+ * @author LEVALLOIS
+ */
+public class HttpTransport {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    // the LLMs can take a while to generate a label, much less than that though
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(120);
+    private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final HttpClient CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(newExecutor())
+            .build();
+
+    public static HttpClient client() {
+        return CLIENT;
+    }
+
+    public static HttpRequest.Builder newRequest() {
+        return HttpRequest.newBuilder().timeout(REQUEST_TIMEOUT);
+    }
+
+    private static ExecutorService newExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "http-transport-" + count.incrementAndGet());
+            // the pool must not keep the jvm alive once the evaluations are done
+            thread.setDaemon(true);
+            return thread;
+        };
+        return Executors.newFixedThreadPool(THREADS, threadFactory);
+    }
+}
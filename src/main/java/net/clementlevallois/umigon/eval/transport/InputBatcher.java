@@ -0,0 +1,150 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import java.io.StringReader;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Groups the texts sent to a Hugging Face text classification endpoint into
+ * one request with an array of inputs, and gives back to each text its own
+ * part of the response.
+ *
+ * A batch is sent when it is full, or when its first text has waited for
+ * maxWait, whichever comes first. The part of the response for one text is
+ * wrapped in an array, so it reads exactly like the response to a request
+ * with a single input.
+ *
+ * When the endpoint rejects a batch with an error that is not worth retrying
+ * (a 400 for a text that is too long, for instance), its texts are sent again
+ * one per request, so that only the texts at fault fail.
+ *
+ * @author LEVALLOIS
+ */
+public class InputBatcher {
+
+    private final ModelTransport transport;
+    private final Function<List<String>, HttpRequest> requestBuilder;
+    private final int batchSize;
+    private final Duration maxWait;
+    private Batch pending;
+
+    public InputBatcher(ModelTransport transport, Function<List<String>, HttpRequest> requestBuilder, int batchSize, Duration maxWait) {
+        this.transport = transport;
+        this.requestBuilder = requestBuilder;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxWait = maxWait;
+    }
+
+    public CompletableFuture<String> submit(String input) {
+        CompletableFuture<String> response = new CompletableFuture();
+        Batch full = null;
+        synchronized (this) {
+            if (pending == null) {
+                Batch batch = new Batch();
+                pending = batch;
+                CompletableFuture.delayedExecutor(maxWait.toNanos(), TimeUnit.NANOSECONDS).execute(() -> flushIfPending(batch));
+            }
+            pending.inputs.add(input);
+            pending.responses.add(response);
+            if (pending.inputs.size() >= batchSize) {
+                full = pending;
+                pending = null;
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return response;
+    }
+
+    private void flushIfPending(Batch batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                // already sent because it was full
+                return;
+            }
+            pending = null;
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        transport.sendAsync(requestBuilder.apply(batch.inputs)).whenComplete((body, ex) -> {
+            if (ex != null && batch.inputs.size() > 1 && isCausedByTheRequest(ex)) {
+                for (int i = 0; i < batch.inputs.size(); i++) {
+                    sendAlone(batch.inputs.get(i), batch.responses.get(i));
+                }
+                return;
+            }
+            if (ex != null) {
+                batch.responses.forEach(response -> response.completeExceptionally(ex));
+                return;
+            }
+            try {
+                List<String> split = split(body, batch.inputs.size());
+                for (int i = 0; i < split.size(); i++) {
+                    batch.responses.get(i).complete(split.get(i));
+                }
+            } catch (RuntimeException e) {
+                batch.responses.forEach(response -> response.completeExceptionally(e));
+            }
+        });
+    }
+
+    private void sendAlone(String input, CompletableFuture<String> response) {
+        transport.sendAsync(requestBuilder.apply(List.of(input))).whenComplete((body, ex) -> {
+            if (ex != null) {
+                response.completeExceptionally(ex);
+                return;
+            }
+            try {
+                response.complete(split(body, 1).get(0));
+            } catch (RuntimeException e) {
+                response.completeExceptionally(e);
+            }
+        });
+    }
+
+    private boolean isCausedByTheRequest(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+        if (!(cause instanceof ApiCallException)) {
+            return false;
+        }
+        int statusCode = ((ApiCallException) cause).getStatusCode();
+        return statusCode >= 400 && !transport.isRetryable(statusCode);
+    }
+
+    static List<String> split(String body, int expectedSize) {
+        JsonArray array;
+        try (JsonReader jsonReader = Json.createReader(new StringReader(body))) {
+            array = jsonReader.readArray();
+        }
+        if (array.size() != expectedSize) {
+            throw new IllegalStateException("the endpoint returned " + array.size() + " results for a batch of " + expectedSize + " inputs: " + body);
+        }
+        List<String> split = new ArrayList();
+        for (JsonValue result : array) {
+            split.add("[" + result.toString() + "]");
+        }
+        return split;
+    }
+
+    private static class Batch {
+
+        private final List<String> inputs = new ArrayList();
+        private final List<CompletableFuture<String>> responses = new ArrayList();
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Sends the API calls of one model without blocking a thread per request.
+ *
+ * Every attempt first waits for a slot of the adaptive concurrency limit of
+ * the endpoint, then reserves a permit from the quota of the provider. All the
+ * models share the HttpClient of {@link HttpTransport}. Failed attempts are
+ * retried following the {@link RetryPolicy}; when it gives up, the future
+ * completes with an {@link ApiCallException}. While the {@link CircuitBreaker}
+ * of the model is open, attempts fail fast without a request and wait for
+ * their next retry on a timer, not on a thread. The exchanges can be recorded
+ * and replayed with the {@link TrafficLog}. A call slower than usual can be
+ * sent twice, following the {@link HedgingPolicy} of the model.
+ *
+ * @author LEVALLOIS
+ */
+public class ModelTransport {
+
+    private final HttpClient httpClient;
+    private final String label;
+    private final Provider provider;
+    private final RetryPolicy retryPolicy;
+    private final CircuitBreaker circuitBreaker;
+    private final HedgingPolicy hedgingPolicy;
+
+    public ModelTransport(String label, Provider provider) {
+        this(label, provider, RetryPolicy.DEFAULT);
+    }
+
+    public ModelTransport(String label, Provider provider, RetryPolicy retryPolicy) {
+        this(label, provider, retryPolicy, HedgingPolicy.none());
+    }
+
+    public ModelTransport(String label, Provider provider, RetryPolicy retryPolicy, HedgingPolicy hedgingPolicy) {
+        this.httpClient = HttpTransport.client();
+        this.label = label;
+        this.provider = provider;
+        this.retryPolicy = retryPolicy;
+        this.hedgingPolicy = hedgingPolicy;
+        this.circuitBreaker = new CircuitBreaker(label, 5, Duration.ofSeconds(30));
+    }
+
+    public String send(HttpRequest request) {
+        return sendAsync(request).join();
+    }
+
+    /**
+     * True for the errors that are retried: the others are caused by the
+     * request itself.
+     */
+    boolean isRetryable(int statusCode) {
+        return retryPolicy.isRetryable(statusCode);
+    }
+
+    /**
+     * The call without a thread waiting for it: the models call
+     * {@link #send} from the virtual threads of the controller, the
+     * {@link InputBatcher} sends its batches with this.
+     */
+    CompletableFuture<String> sendAsync(HttpRequest request) {
+        // the key of the request in the traffic log is the one of the real endpoint, whatever the overrides
+        String trafficKey = TrafficLog.current().isOff() ? null : TrafficLog.keyOf(request);
+        // the limiter and the p95 are the ones of the real endpoint too, so that a mock standing in for all the endpoints keeps them apart
+        URI endpoint = request.uri();
+        HttpRequest redirected = EndpointOverrides.apply(request);
+        // no duplicates when recording or replaying: the exchanges of a request must stay the same from one run to the next
+        if (!hedgingPolicy.isEnabled() || trafficKey != null) {
+            return attempt(redirected, endpoint, trafficKey, 1, null);
+        }
+        hedgingPolicy.onRequest();
+        long p95 = AdaptiveConcurrencyLimiter.forEndpoint(endpoint).getP95Nanos();
+        if (p95 < 0) {
+            return attempt(redirected, endpoint, trafficKey, 1, null);
+        }
+        CompletableFuture<Void> sent = new CompletableFuture();
+        return hedge(attempt(redirected, endpoint, trafficKey, 1, sent), sent, redirected, endpoint, p95);
+    }
+
+    /**
+     * Sends the request a second time if it has not returned this long after
+     * it was sent, and keeps the first response. Fails only if all the calls
+     * sent fail. The delay starts when the request leaves, like the latencies
+     * of the p95: a request still waiting for the limiter or the quota of the
+     * provider is not hedged.
+     */
+    private CompletableFuture<String> hedge(CompletableFuture<String> primary, CompletableFuture<Void> sent, HttpRequest request, URI endpoint, long delayNanos) {
+        CompletableFuture<String> first = new CompletableFuture();
+        int[] pending = {1};
+        BiConsumer<String, Throwable> settle = (body, ex) -> {
+            synchronized (pending) {
+                pending[0]--;
+                if (ex == null) {
+                    first.complete(body);
+                } else if (pending[0] == 0) {
+                    first.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                }
+            }
+        };
+        primary.whenComplete(settle);
+        sent.thenRun(() -> CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            synchronized (pending) {
+                if (first.isDone() || !hedgingPolicy.tryHedge()) {
+                    return;
+                }
+                pending[0]++;
+            }
+            attempt(request, endpoint, null, 1, null).whenComplete(settle);
+        }));
+        return first;
+    }
+
+    /**
+     * @param sent completed when the request leaves for the first time, null if
+     * nobody waits for it
+     */
+    private CompletableFuture<String> attempt(HttpRequest request, URI endpoint, String trafficKey, int attempt, CompletableFuture<Void> sent) {
+        // at full speed, the time of the recording is compressed: the circuit would stay open for much longer than in the recording
+        if (!TrafficLog.current().isReplayingAtFullSpeed() && !circuitBreaker.tryAcquire()) {
+            if (!retryPolicy.canRetry(attempt)) {
+                return CompletableFuture.failedFuture(new ApiCallException(label + ": circuit still open after " + attempt + " attempts", -1, attempt, null));
+            }
+            return retryAfter(retryPolicy.backoff(attempt), request, endpoint, trafficKey, attempt + 1, sent);
+        }
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.forEndpoint(endpoint);
+        long[] start = new long[1];
+        return limiter.acquire()
+                .thenCompose(v -> {
+                    if (TrafficLog.current().isReplayingAtFullSpeed()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return delay(Duration.ofNanos(ProviderQuota.of(provider).reserve(request)));
+                })
+                .thenCompose(v -> {
+                    start[0] = System.nanoTime();
+                    if (sent != null) {
+                        sent.complete(null);
+                    }
+                    return exchange(request, trafficKey);
+                })
+                .handle((response, ex) -> {
+                    if (ex != null) {
+                        limiter.onIgnored();
+                        Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                        if (cause instanceof ApiCallException) {
+                            // given up before reaching the endpoint (a request missing from a replayed recording)
+                            return CompletableFuture.<String>failedFuture(cause);
+                        }
+                        circuitBreaker.onFailure();
+                        if (!retryPolicy.canRetry(attempt)) {
+                            return CompletableFuture.<String>failedFuture(new ApiCallException(label + ": no connexion after " + attempt + " attempts", -1, attempt, ex));
+                        }
+                        System.out.println("");
+                        System.out.println("internet connexion probably broken for " + label + ": check it");
+                        return retryAfter(retryPolicy.backoff(attempt), request, endpoint, trafficKey, attempt + 1, sent);
+                    }
+                    int statusCode = response.statusCode();
+                    if (CircuitBreaker.isFailure(statusCode)) {
+                        circuitBreaker.onFailure();
+                    } else {
+                        circuitBreaker.onSuccess();
+                    }
+                    if (statusCode == 200) {
+                        limiter.onSuccess(System.nanoTime() - start[0]);
+                        System.out.print("*");
+                        return CompletableFuture.completedFuture(response.body());
+                    }
+                    if (AdaptiveConcurrencyLimiter.isOverload(statusCode)) {
+                        limiter.onOverload();
+                    } else {
+                        limiter.onIgnored();
+                    }
+                    if (!retryPolicy.isRetryable(statusCode) || !retryPolicy.canRetry(attempt)) {
+                        String reason = retryPolicy.isRetryable(statusCode) ? "gave up after " + attempt + " attempts" : "error not worth retrying";
+                        return CompletableFuture.<String>failedFuture(new ApiCallException(label + ": " + reason + ", status " + statusCode + ": " + response.body(), statusCode, attempt, null));
+                    }
+                    System.out.println("");
+                    if (statusCode == 503) {
+                        // model still loading, let's wait
+                        System.out.println("waiting for the model to load... (" + attempt + ")");
+                    } else {
+                        System.out.println("ERROR (" + statusCode + "), will retry: ");
+                        System.out.println(response.body());
+                        System.out.println("-----------");
+                    }
+                    return retryAfter(retryPolicy.backoff(attempt, response), request, endpoint, trafficKey, attempt + 1, sent);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<String> retryAfter(Duration pause, HttpRequest request, URI endpoint, String trafficKey, int attempt, CompletableFuture<Void> sent) {
+        if (TrafficLog.current().isReplayingAtFullSpeed()) {
+            pause = Duration.ZERO;
+        }
+        return delay(pause).thenCompose(v -> attempt(request, endpoint, trafficKey, attempt, sent));
+    }
+
+    private CompletableFuture<HttpResponse<String>> exchange(HttpRequest request, String trafficKey) {
+        TrafficLog trafficLog = TrafficLog.current();
+        if (trafficLog.isReplaying()) {
+            return trafficLog.replay(trafficKey, request);
+        }
+        CompletableFuture<HttpResponse<String>> response = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        if (trafficLog.isRecording()) {
+            long start = System.nanoTime();
+            response = response.whenComplete((r, ex) -> trafficLog.append(trafficKey, System.nanoTime() - start, r == null ? 0 : r.statusCode(), r == null ? "" : r.body(), r == null ? null : r.headers().firstValue("Retry-After").orElse(null)));
+        }
+        return response;
+    }
+
+    private static CompletableFuture<Void> delay(Duration pause) {
+        if (pause.isZero()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+        }, CompletableFuture.delayedExecutor(pause.toNanos(), TimeUnit.NANOSECONDS));
+    }
+}
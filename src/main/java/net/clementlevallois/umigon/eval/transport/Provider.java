@@ -0,0 +1,12 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public enum Provider {
+    OPENAI, OPENAI_BATCH, HUGGINGFACE, UMIGON
+}
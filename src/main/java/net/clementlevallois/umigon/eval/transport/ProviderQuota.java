@@ -0,0 +1,60 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import java.net.http.HttpRequest;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The usage limits of a provider, shared by all the calls made to it whatever
+ * the model, the dataset or the thread.
+ *
+ * @author LEVALLOIS
+ */
+public class ProviderQuota {
+
+    // a rough estimate used by OpenAI: one token is about 4 characters of English text
+    private static final int BYTES_PER_TOKEN = 4;
+
+    private static final Map<Provider, ProviderQuota> QUOTAS = new EnumMap(Provider.class);
+
+    static {
+        // Tier 1 usage limits for GPT-3.5: 500 requests per minute and 40k tokens per minute
+        configure(Provider.OPENAI, 500 / 60d, 40_000);
+        // the Batch API of OpenAI: a few calls per batch (upload, creation, polling, download), its tokens are not counted per minute
+        configure(Provider.OPENAI_BATCH, 10, 0);
+        configure(Provider.HUGGINGFACE, 50, 0);
+        // without an API key for Umigon, calls get throttled to 40 max per second.
+        configure(Provider.UMIGON, 40, 0);
+    }
+
+    private final RateLimiter requests;
+    private final RateLimiter tokens;
+
+    private ProviderQuota(double requestsPerSecond, int tokensPerMinute) {
+        this.requests = new RateLimiter(requestsPerSecond);
+        this.tokens = tokensPerMinute > 0 ? new RateLimiter(tokensPerMinute / 60d) : null;
+    }
+
+    public static synchronized void configure(Provider provider, double requestsPerSecond, int tokensPerMinute) {
+        QUOTAS.put(provider, new ProviderQuota(requestsPerSecond, tokensPerMinute));
+    }
+
+    public static synchronized ProviderQuota of(Provider provider) {
+        return QUOTAS.get(provider);
+    }
+
+    /**
+     * @return the number of nanoseconds to wait before sending the request
+     */
+    public long reserve(HttpRequest request) {
+        long wait = requests.reserve(1);
+        if (tokens != null) {
+            long contentLength = request.bodyPublisher().map(HttpRequest.BodyPublisher::contentLength).orElse(0L);
+            wait = Math.max(wait, tokens.reserve(Math.max(1, contentLength / BYTES_PER_TOKEN)));
+        }
+        return wait;
+    }
+}
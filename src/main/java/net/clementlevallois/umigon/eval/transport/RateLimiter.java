@@ -0,0 +1,41 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+/**
+ * A token bucket. Permits are reserved rather than waited for: the caller gets
+ * the delay after which its permits are available and schedules its call
+ * accordingly, so no thread sleeps while waiting for the bucket to refill.
+ *
+ * @author LEVALLOIS
+ */
+public class RateLimiter {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private double available;
+    private long lastRefill;
+
+    public RateLimiter(double permitsPerSecond) {
+        this.permitsPerNano = permitsPerSecond / 1_000_000_000d;
+        // the bucket holds at most one second of permits
+        this.capacity = Math.max(1, permitsPerSecond);
+        this.available = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * @return the number of nanoseconds to wait before the permits can be used
+     */
+    public synchronized long reserve(double permits) {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+        available = available - permits;
+        if (available >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-available / permitsPerNano);
+    }
+}
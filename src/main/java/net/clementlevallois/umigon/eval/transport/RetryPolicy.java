@@ -0,0 +1,77 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * When and how long to wait before sending a failed API call again.
+ *
+ * Broken connexions, timeouts, 408, 429 and 5xx are worth retrying: the
+ * endpoint is down, overloaded or still loading the model. Any other status
+ * (400 for a text that is too long, 401 for a wrong API key...) will fail
+ * again the same way, so the call is given up at once.
+ *
+ * The wait doubles with each attempt up to a maximum, and is drawn at random
+ * below it ("full jitter") so that the calls that failed together do not come
+ * back together.
+ *
+ * @author LEVALLOIS
+ */
+public class RetryPolicy {
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(10, Duration.ofSeconds(1), Duration.ofSeconds(60));
+
+    private final int maxAttempts;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+
+    public RetryPolicy(int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public boolean isRetryable(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    public boolean canRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * @param attempt the number of the attempt that just failed, starting at 1
+     */
+    public Duration backoff(int attempt) {
+        long ceiling = baseDelay.toMillis() << Math.min(attempt - 1, 20);
+        ceiling = Math.min(ceiling, maxDelay.toMillis());
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(ceiling + 1));
+    }
+
+    /**
+     * The backoff, unless the endpoint said how long to wait in a Retry-After
+     * header (in seconds).
+     */
+    public Duration backoff(int attempt, HttpResponse<?> response) {
+        Duration backoff = backoff(attempt);
+        Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+        if (retryAfter.isPresent()) {
+            try {
+                Duration asked = Duration.ofSeconds(Long.parseLong(retryAfter.get().trim()));
+                return asked.compareTo(backoff) > 0 ? asked : backoff;
+            } catch (NumberFormatException e) {
+                // the header can also be an http date: the backoff will do
+            }
+        }
+        return backoff;
+    }
+}
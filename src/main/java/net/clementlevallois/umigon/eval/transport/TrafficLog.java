@@ -0,0 +1,331 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.transport;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Records the http traffic of a live run to a file, and replays it in a later
+ * run without any network.
+ *
+ * Each exchange is appended as one binary record: the SHA-256 of the request
+ * (method, URI and body), the time since the start of the recording when the
+ * response came, the latency, the status code (0 for a broken connexion), the
+ * body of the response and its Retry-After header. In a replay, the calls get
+ * the recorded responses of the same request in the order they were recorded
+ * (the 503s before the 200 of a model that was loading...), the last one being
+ * served again if the request is sent more times. The calls go through the
+ * same retries and limits as in a live run. At full speed they skip the
+ * latency, the quota of the provider, the circuit breaker and the waits
+ * between retries. At the original timing each response comes at the time it
+ * came in the recording (counted from the start of the replay), and never
+ * sooner than its latency after the call is sent; the waits between retries
+ * follow the recorded Retry-After headers.
+ *
+ * A request that is not in the recording fails. Batched requests are only
+ * replayed if the batches are made of the same texts as in the recording. The
+ * response cache answers before the transport: turn it off to replay all the
+ * calls.
+ *
+ * @author LEVALLOIS
+ */
+public class TrafficLog {
+
+    private enum Mode {
+        OFF, RECORD, REPLAY_FULL_SPEED, REPLAY_ORIGINAL_TIMING
+    }
+
+    private static volatile TrafficLog current = new TrafficLog(Mode.OFF, null);
+
+    private final Mode mode;
+    private final Path file;
+    private final Map<String, Deque<Exchange>> recorded = new HashMap();
+    private final long start = System.nanoTime();
+    private FileChannel fileChannel;
+
+    private record Exchange(long offsetMillis, int latencyMicros, int statusCode, String body, String retryAfter) {
+
+    }
+
+    private TrafficLog(Mode mode, Path file) {
+        this.mode = mode;
+        this.file = file;
+    }
+
+    public static void record(Path file) {
+        current = new TrafficLog(Mode.RECORD, file);
+        System.out.println("recording the http traffic to " + file);
+    }
+
+    public static void replay(Path file, boolean originalTiming) {
+        TrafficLog replay = new TrafficLog(originalTiming ? Mode.REPLAY_ORIGINAL_TIMING : Mode.REPLAY_FULL_SPEED, file);
+        int exchanges = replay.load();
+        current = replay;
+        System.out.println("replaying " + exchanges + " http exchanges from " + file + (originalTiming ? " at the original timing" : " at full speed"));
+    }
+
+    public static void off() {
+        current.close();
+        current = new TrafficLog(Mode.OFF, null);
+    }
+
+    public static TrafficLog current() {
+        return current;
+    }
+
+    public boolean isOff() {
+        return mode == Mode.OFF;
+    }
+
+    public boolean isRecording() {
+        return mode == Mode.RECORD;
+    }
+
+    public boolean isReplaying() {
+        return mode == Mode.REPLAY_FULL_SPEED || mode == Mode.REPLAY_ORIGINAL_TIMING;
+    }
+
+    public boolean isReplayingAtFullSpeed() {
+        return mode == Mode.REPLAY_FULL_SPEED;
+    }
+
+    public static String keyOf(HttpRequest request) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((request.method() + " " + request.uri() + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(bodyOf(request));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param retryAfter the Retry-After header of the response, null if it had
+     * none
+     */
+    public synchronized void append(String key, long latencyNanos, int statusCode, String body, String retryAfter) {
+        byte[] keyBytes = HexFormat.of().parseHex(key);
+        byte[] bodyBytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        byte[] retryAfterBytes = retryAfter == null ? new byte[0] : retryAfter.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + keyBytes.length + 8 + 4 + 2 + 4 + bodyBytes.length + 2 + retryAfterBytes.length);
+        buffer.putInt(buffer.capacity() - 4);
+        buffer.put(keyBytes);
+        buffer.putLong(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        buffer.putInt((int) Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+        buffer.putShort((short) statusCode);
+        buffer.putInt(bodyBytes.length);
+        buffer.put(bodyBytes);
+        buffer.putShort((short) retryAfterBytes.length);
+        buffer.put(retryAfterBytes);
+        buffer.flip();
+        try {
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TrafficLog.class.getName()).log(Level.SEVERE, "could not record an exchange to " + file, ex);
+        }
+    }
+
+    public CompletableFuture<HttpResponse<String>> replay(String key, HttpRequest request) {
+        Exchange exchange;
+        synchronized (this) {
+            Deque<Exchange> exchanges = recorded.get(key);
+            if (exchanges == null) {
+                return CompletableFuture.failedFuture(new ApiCallException("this request is not in the recording " + file + ": " + request.uri(), -1, 1, null));
+            }
+            exchange = exchanges.size() > 1 ? exchanges.poll() : exchanges.peek();
+        }
+        long waitNanos = 0;
+        if (mode == Mode.REPLAY_ORIGINAL_TIMING) {
+            long latencyNanos = TimeUnit.MICROSECONDS.toNanos(exchange.latencyMicros());
+            long untilRecordedTimeNanos = start + TimeUnit.MILLISECONDS.toNanos(exchange.offsetMillis()) - System.nanoTime();
+            waitNanos = Math.max(latencyNanos, untilRecordedTimeNanos);
+        }
+        CompletableFuture<Void> wait = waitNanos <= 0
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.runAsync(() -> {
+                }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+        return wait.thenCompose(v -> {
+            if (exchange.statusCode() == 0) {
+                return CompletableFuture.failedFuture(new ConnectException("connexion broken in the recording"));
+            }
+            return CompletableFuture.completedFuture(new ReplayedResponse(request, exchange.statusCode(), exchange.body(), exchange.retryAfter()));
+        });
+    }
+
+    private int load() {
+        int count = 0;
+        try (InputStream is = Files.newInputStream(file); DataInputStream in = new DataInputStream(new BufferedInputStream(is))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException endOfFile) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                try {
+                    in.readFully(record);
+                } catch (EOFException truncated) {
+                    // the run that recorded was killed while writing its last exchange
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                byte[] keyBytes = new byte[32];
+                buffer.get(keyBytes);
+                long offsetMillis = buffer.getLong();
+                int latencyMicros = buffer.getInt();
+                int statusCode = buffer.getShort();
+                byte[] bodyBytes = new byte[buffer.getInt()];
+                buffer.get(bodyBytes);
+                byte[] retryAfterBytes = new byte[buffer.getShort()];
+                buffer.get(retryAfterBytes);
+                Exchange exchange = new Exchange(offsetMillis, latencyMicros, statusCode, new String(bodyBytes, StandardCharsets.UTF_8), new String(retryAfterBytes, StandardCharsets.UTF_8));
+                recorded.computeIfAbsent(HexFormat.of().formatHex(keyBytes), k -> new ArrayDeque()).add(exchange);
+                count++;
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(TrafficLog.class.getName()).log(Level.SEVERE, "could not read the recording " + file, ex);
+        }
+        return count;
+    }
+
+    private synchronized void close() {
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+            } catch (IOException ex) {
+                Logger.getLogger(TrafficLog.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            fileChannel = null;
+        }
+    }
+
+    private static byte[] bodyOf(HttpRequest request) {
+        if (request.bodyPublisher().isEmpty()) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompletableFuture<byte[]> body = new CompletableFuture();
+        request.bodyPublisher().get().subscribe(new Flow.Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                out.write(bytes, 0, bytes.length);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                body.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                body.complete(out.toByteArray());
+            }
+        });
+        return body.join();
+    }
+
+    private static class ReplayedResponse implements HttpResponse<String> {
+
+        private final HttpRequest request;
+        private final int statusCode;
+        private final String body;
+        private final String retryAfter;
+
+        private ReplayedResponse(HttpRequest request, int statusCode, String body, String retryAfter) {
+            this.request = request;
+            this.statusCode = statusCode;
+            this.body = body;
+            this.retryAfter = retryAfter;
+        }
+
+        @Override
+        public int statusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public HttpRequest request() {
+            return request;
+        }
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            if (retryAfter.isEmpty()) {
+                return HttpHeaders.of(Map.of(), (name, value) -> true);
+            }
+            return HttpHeaders.of(Map.of("Retry-After", List.of(retryAfter)), (name, value) -> true);
+        }
+
+        @Override
+        public String body() {
+            return body;
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return request.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import java.util.Random;
+import net.clementlevallois.umigon.eval.controller.Bootstrap;
+import net.clementlevallois.umigon.eval.controller.ConfusionMatrix;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class BootstrapTest {
+
+    @Test
+    public void theIntervalSurroundsTheScoreAndIsReproducible() {
+        Random random = new Random(7);
+        int n = 10_000;
+        int[] gold = new int[n];
+        int[] predicted = new int[n];
+        ConfusionMatrix<Sentiment> matrix = new ConfusionMatrix(Sentiment.class);
+        for (int i = 0; i < n; i++) {
+            gold[i] = random.nextInt(3);
+            // right 80% of the time
+            predicted[i] = random.nextDouble() < 0.8 ? gold[i] : random.nextInt(3);
+            matrix.add(gold[i], predicted[i]);
+        }
+        float[] interval = Bootstrap.weightedF1Interval(Sentiment.class, gold, predicted, Bootstrap.RESAMPLES);
+        assertThat(interval[0]).isLessThan(matrix.weightedF1());
+        assertThat(interval[1]).isGreaterThan(matrix.weightedF1());
+        assertThat(interval[1] - interval[0]).isBetween(0.005f, 0.05f);
+        assertThat(Bootstrap.weightedF1Interval(Sentiment.class, gold, predicted, Bootstrap.RESAMPLES)).isEqualTo(interval);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import net.clementlevallois.umigon.eval.controller.ConfusionMatrix;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import static net.clementlevallois.umigon.eval.datamodel.Sentiment.NEGATIVE;
+import static net.clementlevallois.umigon.eval.datamodel.Sentiment.NEUTRAL;
+import static net.clementlevallois.umigon.eval.datamodel.Sentiment.NOT_SET;
+import static net.clementlevallois.umigon.eval.datamodel.Sentiment.POSITIVE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class ConfusionMatrixTest {
+
+    @Test
+    public void metricsFromTheCounts() {
+        ConfusionMatrix<Sentiment> matrix = new ConfusionMatrix(Sentiment.class);
+        matrix.add(POSITIVE, POSITIVE);
+        matrix.add(POSITIVE, POSITIVE);
+        matrix.add(POSITIVE, NEGATIVE);
+        matrix.add(NEGATIVE, NEGATIVE);
+        matrix.add(NEGATIVE, NEUTRAL);
+        matrix.add(NEUTRAL, NEUTRAL);
+
+        assertThat(matrix.precision(POSITIVE)).isEqualTo(1f);
+        assertThat(matrix.recall(POSITIVE)).isCloseTo(2 / 3f, within(1e-6f));
+        assertThat(matrix.f1(POSITIVE)).isCloseTo(0.8f, within(1e-6f));
+        assertThat(matrix.f1(NEGATIVE)).isCloseTo(0.5f, within(1e-6f));
+        assertThat(matrix.f1(NEUTRAL)).isCloseTo(2 / 3f, within(1e-6f));
+        assertThat(matrix.weightedF1()).isCloseTo((0.8f * 3 + 0.5f * 2 + 2 / 3f) / 6, within(1e-6f));
+        assertThat(matrix.macroF1()).isCloseTo((0.8f + 0.5f + 2 / 3f) / 3, within(1e-6f));
+        assertThat(matrix.accuracy()).isCloseTo(4 / 6f, within(1e-6f));
+        assertThat(matrix.cohensKappa()).isCloseTo(0.5f, within(1e-6f));
+    }
+
+    @Test
+    public void aMissingPredictionOnlyCountsInTheSupport() {
+        ConfusionMatrix<Sentiment> matrix = new ConfusionMatrix(Sentiment.class);
+        matrix.add(POSITIVE, POSITIVE);
+        matrix.add(NEGATIVE, NEGATIVE);
+        matrix.add(NEGATIVE, NOT_SET);
+        // no gold label: not counted at all
+        matrix.add(NOT_SET, POSITIVE);
+
+        assertThat(matrix.f1(NEGATIVE)).isEqualTo(1f);
+        assertThat(matrix.f1(POSITIVE)).isEqualTo(1f);
+        assertThat(matrix.support(NEGATIVE)).isEqualTo(2);
+        assertThat(matrix.weightedF1()).isEqualTo(1f);
+        assertThat(matrix.accuracy()).isCloseTo(2 / 3f, within(1e-6f));
+        assertThat(matrix.f1(NEUTRAL)).isNaN();
+    }
+}
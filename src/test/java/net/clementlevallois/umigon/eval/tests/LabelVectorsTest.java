@@ -0,0 +1,76 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import net.clementlevallois.umigon.eval.controller.ConfusionMatrix;
+import net.clementlevallois.umigon.eval.controller.F1;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
+import static net.clementlevallois.umigon.eval.datamodel.Factuality.OBJ;
+import net.clementlevallois.umigon.eval.datamodel.LabelVectors;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import static net.clementlevallois.umigon.eval.datamodel.Sentiment.NEGATIVE;
+import static net.clementlevallois.umigon.eval.datamodel.Sentiment.POSITIVE;
+import static net.clementlevallois.umigon.eval.datamodel.Task.SENTIMENT;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class LabelVectorsTest {
+
+    @Test
+    public void predictionsAreAlignedOnTheGoldLabels() {
+        Map<String, AnnotatedDocument> gold = new HashMap();
+        gold.put("a", new AnnotatedDocument("a", "text a").addAnnotation(Annotation.empty().withSentiment(POSITIVE)));
+        gold.put("b", new AnnotatedDocument("b", "text b").addAnnotation(Annotation.empty().withSentiment(NEGATIVE)));
+        gold.put("c", new AnnotatedDocument("c", "text c"));
+        gold.put("d", new AnnotatedDocument("d", "text d").addAnnotation(Annotation.empty().withFactuality(OBJ)));
+
+        Map<String, AnnotatedDocument> predictions = new HashMap();
+        predictions.put("a", new AnnotatedDocument("a", "text a").addAnnotation(Annotation.empty().withSentiment(POSITIVE)));
+        predictions.put("c", new AnnotatedDocument("c", "text c").addAnnotation(Annotation.empty().withSentiment(NEGATIVE)));
+        predictions.put("d", new AnnotatedDocument("d", "text d").addAnnotation(Annotation.empty().withSentiment(NEGATIVE)));
+        predictions.put("not in the dataset", new AnnotatedDocument("not in the dataset", "text").addAnnotation(Annotation.empty().withSentiment(NEGATIVE)));
+
+        LabelVectors labels = new LabelVectors(gold);
+        LabelVectors.Predictions aligned = labels.align(predictions);
+        byte[] goldLabels = labels.getGoldLabels(SENTIMENT);
+        byte[] predictedLabels = aligned.getLabels(SENTIMENT);
+        assertThat(labels.size()).isEqualTo(4);
+        int indexOfA = -1;
+        for (int i = 0; i < labels.size(); i++) {
+            switch (labels.getText(i)) {
+                case "text a" -> {
+                    indexOfA = i;
+                    assertThat(goldLabels[i]).isEqualTo((byte) POSITIVE.ordinal());
+                    assertThat(predictedLabels[i]).isEqualTo((byte) POSITIVE.ordinal());
+                }
+                case "text b" -> {
+                    assertThat(goldLabels[i]).isEqualTo((byte) NEGATIVE.ordinal());
+                    assertThat(predictedLabels[i]).isEqualTo(LabelVectors.NO_LABEL);
+                }
+                case "text d" -> {
+                    assertThat(goldLabels[i]).isEqualTo((byte) Sentiment.NOT_SET.ordinal());
+                    assertThat(predictedLabels[i]).isEqualTo((byte) NEGATIVE.ordinal());
+                }
+                default -> {
+                    assertThat(goldLabels[i]).isEqualTo(LabelVectors.NO_LABEL);
+                    assertThat(predictedLabels[i]).isEqualTo((byte) NEGATIVE.ordinal());
+                }
+            }
+        }
+
+        // only the document with a gold label and a prediction is scored
+        assertThat(labels.scoredDocuments(SENTIMENT, predictedLabels)).containsExactly(indexOfA);
+        ConfusionMatrix<Sentiment> matrix = F1.confusionMatrices(labels, aligned, Set.of(SENTIMENT), false).getSentiment();
+        assertThat(matrix.numberOfDocuments()).isEqualTo(1);
+        assertThat(matrix.count(POSITIVE, POSITIVE)).isEqualTo(1);
+    }
+}
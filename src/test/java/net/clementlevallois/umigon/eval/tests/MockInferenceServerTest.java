@@ -0,0 +1,168 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import net.clementlevallois.umigon.eval.mockserver.LatencyDistribution;
+import net.clementlevallois.umigon.eval.mockserver.MockBehavior;
+import net.clementlevallois.umigon.eval.mockserver.MockInferenceServer;
+import net.clementlevallois.umigon.eval.models.GPT35BasicPrompt;
+import net.clementlevallois.umigon.eval.models.Mistral7BHermesAdvancedPrompt;
+import net.clementlevallois.umigon.eval.models.ModelInterface;
+import net.clementlevallois.umigon.eval.models.TimeLMs;
+import net.clementlevallois.umigon.eval.models.Umigon;
+import net.clementlevallois.umigon.eval.transport.ApiCallException;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class MockInferenceServerTest {
+
+    private static final ExecutorService VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static CompletableFuture<String> sendApiCallInTheBackground(ModelInterface model, AnnotatedDocument doc) {
+        // like the controller: one virtual thread per call
+        return CompletableFuture.supplyAsync(() -> model.sendApiCall(doc), VIRTUAL_THREADS);
+    }
+
+    @Test
+    public void eachModelReadsTheShapeOfItsEndpoint() throws Exception {
+        Umigon umigon = new Umigon();
+        TimeLMs timeLMs = new TimeLMs();
+        GPT35BasicPrompt gpt = new GPT35BasicPrompt();
+        Mistral7BHermesAdvancedPrompt mistral = new Mistral7BHermesAdvancedPrompt();
+        Set<ModelInterface> models = Set.of(umigon, timeLMs, gpt, mistral);
+        MockBehavior behavior = MockBehavior.healthy().withLatency(LatencyDistribution.uniform(5, 20));
+        try (MockInferenceServer mock = MockInferenceServer.standInForAllEndpoints(models, behavior)) {
+            List<AnnotatedDocument> docs = new ArrayList();
+            for (int i = 0; i < 20; i++) {
+                docs.add(new AnnotatedDocument("document number " + i + " with a \"quote\" and an émoji 😀"));
+            }
+            for (ModelInterface model : models) {
+                List<CompletableFuture<String>> responses = new ArrayList();
+                docs.forEach(doc -> responses.add(sendApiCallInTheBackground(model, doc)));
+                for (int i = 0; i < docs.size(); i++) {
+                    Sentiment expected = umigon.extractAnnotation(umigon.sendApiCall(docs.get(i))).getSentiment();
+                    Sentiment actual = model.extractAnnotation(responses.get(i).join()).getSentiment();
+                    // the mock labels the text without its prompt: all the models get the same label
+                    assertThat(actual).isNotEqualTo(Sentiment.NOT_SET).isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batchesAndWaitsForTheModelToLoad() throws Exception {
+        TimeLMs timeLMs = new TimeLMs();
+        MockBehavior behavior = MockBehavior.healthy().withLoadingPhase(Duration.ofMillis(500));
+        try (MockInferenceServer mock = MockInferenceServer.standInForAllEndpoints(Set.of(timeLMs), behavior)) {
+            String first = timeLMs.sendApiCall(new AnnotatedDocument("the model is loading"));
+            assertThat(timeLMs.extractAnnotation(first).getSentiment()).isNotEqualTo(Sentiment.NOT_SET);
+            int callsWhileLoading = mock.getNumberOfCalls();
+            assertThat(callsWhileLoading).isGreaterThan(1);
+
+            List<CompletableFuture<String>> responses = new ArrayList();
+            for (int i = 0; i < 40; i++) {
+                responses.add(sendApiCallInTheBackground(timeLMs, new AnnotatedDocument("text " + i)));
+            }
+            CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new)).join();
+            // 40 texts in batches of 32
+            assertThat(mock.getNumberOfCalls() - callsWhileLoading).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void aTextTooLongOnlyFailsItself() throws Exception {
+        TimeLMs timeLMs = new TimeLMs();
+        MockBehavior behavior = MockBehavior.healthy().withMaxInputLength(100);
+        try (MockInferenceServer mock = MockInferenceServer.standInForAllEndpoints(Set.of(timeLMs), behavior)) {
+            List<CompletableFuture<String>> responses = new ArrayList();
+            for (int i = 0; i < 10; i++) {
+                String text = i == 3 ? "too long ".repeat(20) : "text " + i;
+                responses.add(sendApiCallInTheBackground(timeLMs, new AnnotatedDocument(text)));
+            }
+            for (int i = 0; i < responses.size(); i++) {
+                if (i == 3) {
+                    assertThatThrownBy(responses.get(i)::join).isInstanceOf(CompletionException.class)
+                            .cause().isInstanceOf(ApiCallException.class);
+                } else {
+                    assertThat(timeLMs.extractAnnotation(responses.get(i).join()).getSentiment()).isNotEqualTo(Sentiment.NOT_SET);
+                }
+            }
+            // the batch, then each text on its own
+            assertThat(mock.getNumberOfCalls()).isEqualTo(11);
+        }
+    }
+
+    @Test
+    public void openAIBatchMapsTheResponsesBackToTheDocuments() throws Exception {
+        GPT35BasicPrompt gpt = new GPT35BasicPrompt();
+        try (MockInferenceServer mock = MockInferenceServer.standInForAllEndpoints(Set.of(gpt), MockBehavior.healthy())) {
+            List<AnnotatedDocument> docs = new ArrayList();
+            for (int i = 0; i < 30; i++) {
+                docs.add(new AnnotatedDocument("doc-" + i, "text number " + i + " in a \"batch\"\nover two lines"));
+            }
+            List<Annotation> annotations = gpt.annotateBatch(docs);
+            // upload, creation, one poll and download
+            assertThat(mock.getNumberOfCalls()).isEqualTo(4);
+            assertThat(annotations).hasSize(docs.size());
+            for (int i = 0; i < docs.size(); i++) {
+                Sentiment oneByOne = gpt.extractAnnotation(gpt.sendApiCall(docs.get(i))).getSentiment();
+                assertThat(annotations.get(i).getSentiment()).isNotEqualTo(Sentiment.NOT_SET).isEqualTo(oneByOne);
+            }
+        }
+    }
+
+    @Test
+    public void openAIBatchIsResumedAfterARestart() throws Exception {
+        GPT35BasicPrompt gpt = new GPT35BasicPrompt();
+        Path batchesInProgress = Files.createTempFile("eval", ".batches");
+        Files.delete(batchesInProgress);
+        try (MockInferenceServer mock = MockInferenceServer.standInForAllEndpoints(Set.of(gpt), MockBehavior.healthy())) {
+            List<AnnotatedDocument> docs = new ArrayList();
+            for (int i = 0; i < 30; i++) {
+                docs.add(new AnnotatedDocument("doc-" + i, "text number " + i));
+            }
+            // the run is stopped while it waits for the batch
+            Thread run = Thread.ofVirtual().start(() -> {
+                try {
+                    gpt.annotateBatch(docs, batchesInProgress);
+                } catch (RuntimeException interrupted) {
+                }
+            });
+            while (!Files.exists(batchesInProgress) || !Files.readString(batchesInProgress).contains("batch_mock")) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            run.interrupt();
+            run.join();
+            // upload and creation
+            assertThat(mock.getNumberOfCalls()).isEqualTo(2);
+
+            List<Annotation> annotations = gpt.annotateBatch(docs, batchesInProgress);
+            // one poll and download: the batch was not sent again
+            assertThat(mock.getNumberOfCalls()).isEqualTo(4);
+            assertThat(annotations).hasSize(docs.size()).allMatch(annotation -> annotation.getSentiment() != Sentiment.NOT_SET);
+            assertThat(batchesInProgress).doesNotExist();
+        } finally {
+            Files.deleteIfExists(batchesInProgress);
+        }
+    }
+}
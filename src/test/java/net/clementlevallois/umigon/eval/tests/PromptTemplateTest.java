@@ -0,0 +1,37 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import net.clementlevallois.umigon.eval.models.PromptTemplate;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class PromptTemplateTest {
+
+    @Test
+    public void renderValidJsonWithTheTextInside() {
+        String prompt = "Label this \"text\":\n";
+        PromptTemplate template = new PromptTemplate("{\"inputs\":\"" + PromptTemplate.escape(prompt), "\\n\\nwill be labelled as \",\"use_cache\":false}");
+        String text = "café \\ \"quoted\"\ttab\u0001 €100 😀 \ud800 end";
+
+        byte[] body = template.render(text);
+
+        JsonObject jsonObject;
+        try (JsonReader jsonReader = Json.createReader(new StringReader(new String(body, StandardCharsets.UTF_8)))) {
+            jsonObject = jsonReader.readObject();
+        }
+        String expectedText = text.replace("\ud800", "?");
+        assertThat(jsonObject.getString("inputs")).isEqualTo(prompt + expectedText + "\n\nwill be labelled as ");
+        assertThat(jsonObject.getBoolean("use_cache")).isFalse();
+    }
+}
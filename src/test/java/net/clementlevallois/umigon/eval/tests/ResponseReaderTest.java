@@ -0,0 +1,51 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.clementlevallois.umigon.eval.models.ResponseReader;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class ResponseReaderTest {
+
+    @Test
+    public void readStringAtDepth() {
+        String umigon = "{\"text\":\"nice\",\"decisions\":[{\"sentiment\":\"nested\"}],\"sentiment\":\"positive feeling\"}";
+        assertThat(ResponseReader.readString(umigon, "sentiment", 1)).isEqualTo("positive feeling");
+
+        String gpt = "{\"id\":\"x\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"Negative\"}}],\"usage\":{\"total_tokens\":12}}";
+        assertThat(ResponseReader.readString(gpt, "content", 4)).isEqualTo("Negative");
+
+        String mistral = "[{\"generated_text\":\"neutral\"}]";
+        assertThat(ResponseReader.readString(mistral, "generated_text", 2)).isEqualTo("neutral");
+        assertThat(ResponseReader.readString(mistral, "missing", 2)).isNull();
+    }
+
+    @Test
+    public void readLabelScoresUntilStopped() {
+        String response = "[[{\"label\":\"LABEL_1\",\"score\":0.9},{\"label\":\"LABEL_0\",\"score\":1.0E-1}]]";
+        List<String> labels = new ArrayList();
+        List<Float> scores = new ArrayList();
+        ResponseReader.readLabelScores(response, (label, score) -> {
+            labels.add(label);
+            scores.add(score);
+            return true;
+        });
+        assertThat(labels).containsExactly("LABEL_1", "LABEL_0");
+        assertThat(scores).containsExactly(0.9f, 0.1f);
+
+        labels.clear();
+        ResponseReader.readLabelScores(response, (label, score) -> {
+            labels.add(label);
+            return false;
+        });
+        assertThat(labels).containsExactly("LABEL_1");
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import java.util.Random;
+import net.clementlevallois.umigon.eval.controller.SignificanceTests;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class SignificanceTestsTest {
+
+    @Test
+    public void mcNemarExactAndChiSquare() {
+        assertThat(SignificanceTests.mcNemar(0, 0)).isEqualTo(1);
+        assertThat(SignificanceTests.mcNemar(0, 10)).isCloseTo(2 * Math.pow(0.5, 10), within(1e-12));
+        assertThat(SignificanceTests.mcNemar(5, 5)).isEqualTo(1);
+        // chi-square of (|30 - 10| - 1)^2 / 40 = 9.025 with 1 degree of freedom
+        assertThat(SignificanceTests.mcNemar(30, 10)).isCloseTo(0.00266, within(1e-5));
+    }
+
+    @Test
+    public void randomizationSeparatesABetterModelFromAnEqualOne() {
+        Random random = new Random(3);
+        int n = 2000;
+        int[] gold = new int[n];
+        int[] good = new int[n];
+        int[] alsoGood = new int[n];
+        int[] worse = new int[n];
+        for (int i = 0; i < n; i++) {
+            gold[i] = random.nextInt(3);
+            good[i] = random.nextDouble() < 0.8 ? gold[i] : random.nextInt(3);
+            alsoGood[i] = random.nextDouble() < 0.8 ? gold[i] : random.nextInt(3);
+            worse[i] = random.nextDouble() < 0.6 ? gold[i] : random.nextInt(3);
+        }
+        assertThat(SignificanceTests.approximateRandomization(Sentiment.class, gold, good, good, SignificanceTests.SHUFFLES, 1)).isEqualTo(1);
+        assertThat(SignificanceTests.approximateRandomization(Sentiment.class, gold, good, worse, SignificanceTests.SHUFFLES, 1)).isLessThan(0.001);
+        assertThat(SignificanceTests.approximateRandomization(Sentiment.class, gold, good, alsoGood, SignificanceTests.SHUFFLES, 1)).isGreaterThan(0.05);
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import net.clementlevallois.umigon.eval.models.UmigonEngine;
+
+/**
+ * A stand-in for the Umigon classifier, registered for the tests in
+ * META-INF/services: the sentiment is the first word of the text.
+ *
+ * @author LEVALLOIS
+ */
+public class StubUmigonEngine implements UmigonEngine {
+
+    @Override
+    public Sentiment classify(String text) {
+        return switch (text.split(" ")[0]) {
+            case "positive" ->
+                Sentiment.POSITIVE;
+            case "negative" ->
+                Sentiment.NEGATIVE;
+            case "neutral" ->
+                Sentiment.NEUTRAL;
+            default ->
+                Sentiment.NOT_SET;
+        };
+    }
+}
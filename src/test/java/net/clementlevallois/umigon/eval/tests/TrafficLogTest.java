@@ -0,0 +1,88 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.mockserver.MockBehavior;
+import net.clementlevallois.umigon.eval.mockserver.MockInferenceServer;
+import net.clementlevallois.umigon.eval.models.Umigon;
+import net.clementlevallois.umigon.eval.transport.ApiCallException;
+import net.clementlevallois.umigon.eval.transport.TrafficLog;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class TrafficLogTest {
+
+    @Test
+    public void replayWhatWasRecorded() throws Exception {
+        Path recording = Files.createTempFile("traffic", ".bin");
+        Files.delete(recording);
+        Umigon umigon = new Umigon();
+        List<AnnotatedDocument> docs = new ArrayList();
+        for (int i = 0; i < 10; i++) {
+            docs.add(new AnnotatedDocument("recorded text " + i));
+        }
+        List<String> live = new ArrayList();
+        try (MockInferenceServer mock = MockInferenceServer.standInForAllEndpoints(Set.of(umigon), MockBehavior.healthy())) {
+            TrafficLog.record(recording);
+            docs.forEach(doc -> live.add(umigon.sendApiCall(doc)));
+            TrafficLog.off();
+        }
+
+        // no server anymore: the responses come from the recording
+        TrafficLog.replay(recording, false);
+        try {
+            for (int i = 0; i < docs.size(); i++) {
+                assertThat(umigon.sendApiCall(docs.get(i))).isEqualTo(live.get(i));
+            }
+            assertThatThrownBy(() -> umigon.sendApiCall(new AnnotatedDocument("never recorded"))).hasCauseInstanceOf(ApiCallException.class);
+        } finally {
+            TrafficLog.off();
+            Files.deleteIfExists(recording);
+        }
+    }
+
+    @Test
+    public void replayALoadingModelWithoutItsWaitsAtFullSpeed() throws Exception {
+        Path recording = Files.createTempFile("traffic", ".bin");
+        Files.delete(recording);
+        Umigon umigon = new Umigon();
+        AnnotatedDocument doc = new AnnotatedDocument("text sent while the model is loading");
+        String live;
+        // a 503 with a Retry-After of 1 second, then a 200
+        try (MockInferenceServer mock = MockInferenceServer.standInForAllEndpoints(Set.of(umigon), MockBehavior.healthy().withLoadingPhase(Duration.ofMillis(500)))) {
+            TrafficLog.record(recording);
+            live = umigon.sendApiCall(doc);
+            TrafficLog.off();
+        }
+
+        try {
+            TrafficLog.replay(recording, false);
+            long start = System.nanoTime();
+            assertThat(umigon.sendApiCall(doc)).isEqualTo(live);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(500));
+            TrafficLog.off();
+
+            // the Retry-After of the 503 was recorded: the original timing waits for it
+            TrafficLog.replay(recording, true);
+            start = System.nanoTime();
+            assertThat(umigon.sendApiCall(doc)).isEqualTo(live);
+            assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofSeconds(1));
+        } finally {
+            TrafficLog.off();
+            Files.deleteIfExists(recording);
+        }
+    }
+}
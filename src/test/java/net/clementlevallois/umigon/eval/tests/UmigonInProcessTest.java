@@ -0,0 +1,53 @@
+/*
+ * Copyright Clement Levallois 2021-2023. License Attribution 4.0 Intertnational (CC BY 4.0)
+ */
+package net.clementlevallois.umigon.eval.tests;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import net.clementlevallois.umigon.eval.datamodel.AnnotatedDocument;
+import net.clementlevallois.umigon.eval.datamodel.Annotation;
+import net.clementlevallois.umigon.eval.datamodel.Sentiment;
+import net.clementlevallois.umigon.eval.models.Umigon;
+import net.clementlevallois.umigon.eval.models.UmigonEngine;
+import net.clementlevallois.umigon.eval.models.UmigonInProcess;
+import static org.assertj.core.api.Assertions.assertThat;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author LEVALLOIS
+ */
+public class UmigonInProcessTest {
+
+    @Test
+    public void sameAnnotationsAsTheUmigonApi() {
+        Optional<UmigonEngine> engine = UmigonEngine.find();
+        assertThat(engine).containsInstanceOf(StubUmigonEngine.class);
+        UmigonInProcess inProcess = new UmigonInProcess(engine.get());
+        Umigon api = new Umigon();
+
+        List<AnnotatedDocument> docs = new ArrayList();
+        for (String text : List.of("positive text", "negative text", "neutral text", "text with no label")) {
+            docs.add(new AnnotatedDocument(text));
+        }
+        List<Annotation> batch = inProcess.annotateBatch(docs);
+        assertThat(batch).hasSize(docs.size());
+        for (int i = 0; i < docs.size(); i++) {
+            // the response the Umigon API gives for the sentiment found by the classifier (no label when it found none)
+            Sentiment sentiment = engine.get().classify(docs.get(i).getText());
+            JsonObjectBuilder response = Json.createObjectBuilder();
+            if (sentiment != Sentiment.NOT_SET) {
+                response.add("sentiment", sentiment.name().toLowerCase() + " feeling");
+            }
+            Annotation fromApi = api.extractAnnotation(response.build().toString());
+
+            assertThat(inProcess.annotate(docs.get(i))).usingRecursiveComparison().isEqualTo(fromApi);
+            assertThat(batch.get(i)).usingRecursiveComparison().isEqualTo(fromApi);
+            assertThat(inProcess.extractAnnotation(inProcess.sendApiCall(docs.get(i)))).usingRecursiveComparison().isEqualTo(fromApi);
+        }
+    }
+}